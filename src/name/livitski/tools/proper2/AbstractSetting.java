@@ -16,6 +16,9 @@
  */
 package name.livitski.tools.proper2;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 import java.util.regex.Pattern;
 
@@ -33,19 +36,85 @@ public abstract class AbstractSetting<D, T>
  public abstract Class<T> getType();
 
  /**
-  * Returns the value of this setting.
+  * Returns the value of this setting. The value is
+  * {@link #convert(String) converted} and checked against the
+  * {@link #addConstraint(Constraint) constraints} once per
+  * {@link #loadValue(String) load} and returned as is by
+  * subsequent calls, unless this setting is {@link #isTransient() transient}.
   * @throws ConfigurationException if the setting's value is
   * not valid or this is a required setting
   * not defined in the configuration
   */
- public abstract T getValue() throws ConfigurationException;
+ public T getValue() throws ConfigurationException
+ {
+  if (isTransient())
+   return check(convert(valueString));
+  if (!converted)
+  {
+   value = check(convert(valueString));
+   converted = true;
+  }
+  return value;
+ }
+
+ /**
+  * Converts the text of this setting to its value. Handlers that
+  * do not override {@link #getValue()} must implement this method.
+  * The method is not abstract, so that handlers written against earlier
+  * versions, which override {@link #getValue()} instead, still compile.
+  * @param text the text of this setting, or <code>null</code> if
+  * the configuration does not contain it
+  * @return the value of this setting
+  * @throws ConfigurationException if the text is not a valid
+  * value of this setting, or this handler overrides neither this
+  * method nor {@link #getValue()}
+  */
+ protected T convert(String text) throws ConfigurationException
+ {
+  throw new ConfigurationException(
+    getClass().getName() + " must override either convert() or getValue() to read " + this);
+ }
 
  /**
   * Loads this setting from a settings map if the map contains it.
   */
  public void load(Properties map) throws ConfigurationException
  {
-  valueString = map.getProperty(name);
+  loadValue(map.getProperty(name));
+ }
+
+ /**
+  * Loads this setting from a configuration snapshot if the snapshot
+  * contains it. The setting's key is
+  * {@link Configuration#registerKey(String) registered} when this
+  * handler is created, so that the snapshot can find its value by
+  * that key's slot without hashing the key. Handlers that override
+  * {@link #load(Properties)} but not this method are loaded from
+  * the snapshot's {@link ConfigurationSnapshot#toProperties() properties}
+  * by their own method.
+  */
+ public void load(ConfigurationSnapshot snapshot) throws ConfigurationException
+ {
+  if (LOADS_PROPERTIES.get(getClass()))
+   load(snapshot.toProperties());
+  else
+   loadValue(0 > slot ? snapshot.get(name) : snapshot.get(slot));
+ }
+
+ /**
+  * Stores and validates the text of this setting found in the
+  * configuration, discarding the value converted from any text
+  * loaded earlier. Unless this setting is {@link #isTransient() transient},
+  * text that is present is converted and checked against the
+  * {@link #addConstraint(Constraint) constraints} right away.
+  * @param valueString the text of this setting or <code>null</code>
+  * if the configuration does not contain it
+  */
+ protected void loadValue(String valueString) throws ConfigurationException
+ {
+  converted = false;
+  value = null;
+  this.valueString = valueString;
   if (required && null == valueString)
    throw new ConfigurationException(
      this + " is required and missing from the configuration file.");
@@ -53,6 +122,8 @@ public abstract class AbstractSetting<D, T>
    throw new ConfigurationException(
      this + " \"" + valueString
      + "\" does not match the constraint pattern: " + getConstraintPattern());
+  if (null != valueString && !isTransient())
+   getValue();
  }
 
  /**
@@ -108,6 +179,30 @@ public abstract class AbstractSetting<D, T>
   this.required = required;
  }
 
+ /**
+  * Returns the constraints imposed on this setting's values.
+  * @return an unmodifiable list of constraints
+  * @see #addConstraint(Constraint)
+  */
+ public List<Constraint<? super T>> getConstraints()
+ {
+  return Collections.unmodifiableList(constraints);
+ }
+
+ /**
+  * Imposes a {@link Constraint constraint} on this setting's values.
+  * Constraints are checked against converted values when the setting
+  * is loaded. Unset settings are not checked. Takes effect on the
+  * next load of this setting.
+  * @param constraint the constraint to impose
+  */
+ public void addConstraint(Constraint<? super T> constraint)
+ {
+  if (constraints.isEmpty())
+   constraints = new ArrayList<Constraint<? super T>>(2);
+  constraints.add(constraint);
+ }
+
  /**
   * Returns the {@link Pattern regular expression} that this setting's
   * values must match.
@@ -118,8 +213,11 @@ public abstract class AbstractSetting<D, T>
  }
 
  /**
-  * Imposes a {@link Pattern regular expression} check on this setting's
-  * values.
+  * Imposes a {@link Pattern regular expression} check on the text of
+  * this setting's values. The check runs on every load before
+  * conversion, and is best suited to string settings. Settings of
+  * other types should use {@link #addConstraint(Constraint) typed constraints}
+  * instead.
   * @param constraintPattern the regular expression to test setting's
   * values against 
   */
@@ -135,6 +233,21 @@ public abstract class AbstractSetting<D, T>
  public AbstractSetting(String name)
  {
   this.name = name;
+  this.slot = null == name ? -1 : SettingKeys.register(name);
+ }
+
+ private T check(T value) throws ConfigurationException
+ {
+  if (null != value)
+   for (int i = 0; i < constraints.size(); i++)
+   {
+    Constraint<? super T> constraint = constraints.get(i);
+    if (!constraint.accepts(value))
+     throw new ConfigurationException(this
+       + (isTransient() ? "" : " \"" + valueString + '"')
+       + " must be " + constraint);
+   }
+  return value;
  }
 
  @Override
@@ -143,10 +256,41 @@ public abstract class AbstractSetting<D, T>
   return "Setting \"" + name + "\" of type " + getType().getName();
  }
 
+ /**
+  * Tells whether a handler class overrides {@link #load(Properties)}
+  * below the class that last overrides {@link #load(ConfigurationSnapshot)}.
+  */
+ private static final ClassValue<Boolean> LOADS_PROPERTIES = new ClassValue<Boolean>() {
+  @Override
+  protected Boolean computeValue(Class<?> type)
+  {
+   Class<?> properties = declaringClass(type, Properties.class);
+   Class<?> snapshot = declaringClass(type, ConfigurationSnapshot.class);
+   return properties != snapshot && snapshot.isAssignableFrom(properties);
+  }
+
+  private Class<?> declaringClass(Class<?> type, Class<?> source)
+  {
+   for (Class<?> at = type;; at = at.getSuperclass())
+    try
+    {
+     at.getDeclaredMethod("load", source);
+     return at;
+    }
+    catch (NoSuchMethodException inherited)
+    {
+    }
+  }
+ };
+
  protected static final String SQL_LITERAL_PATTERN = "[\\w\\^\\&\\|\\]\\[\\\\~!@#$%*()<>?,./;:{}]+";
  
  protected String valueString;
  protected Pattern constraintPattern;
+ private T value;
+ private volatile boolean converted;
  private String name;
+ private final int slot;
  private boolean required;
+ private List<Constraint<? super T>> constraints = Collections.emptyList();
 }
@@ -36,19 +36,33 @@ public abstract class BooleanSetting<D> extends AbstractSetting<D, Boolean>
   return Boolean.class;
  }
 
+ /**
+  * Returns the value of this setting as a primitive <code>boolean</code>.
+  * @throws ConfigurationException if the setting's value is
+  * invalid or the setting is not set
+  * @see #getValue()
+  */
+ public boolean getBoolean() throws ConfigurationException
+ {
+  Boolean value = getValue();
+  if (null == value)
+   throw new ConfigurationException(this + " is not set in the configuration");
+  return value;
+ }
+
  @Override
- public Boolean getValue() throws ConfigurationException
+ protected Boolean convert(String text) throws ConfigurationException
  {
-  if (null == valueString)
+  if (null == text)
    return null;
-  valueString = valueString.toLowerCase();
-  if ("true".equals(valueString) || "yes".equals(valueString)
-    || "on".equals(valueString) || "1".equals(valueString))
-   return true;
-  if ("false".equals(valueString) || "no".equals(valueString)
-    || "off".equals(valueString) || "0".equals(valueString))
-   return false;
-  throw new ConfigurationException("Configuration setting \"" + getName()
-    + "\" has an invalid boolean value: " + valueString);
+  Boolean value = VALUES.get(text);
+  if (null == value)
+   throw new ConfigurationException("Configuration setting \"" + getName()
+     + "\" has an invalid boolean value: " + text);
+  return value;
  }
+
+ private static final CaseFoldedTable<Boolean> VALUES = new CaseFoldedTable<Boolean>(
+   new String[] { "true", "yes", "on", "1", "false", "no", "off", "0" },
+   new Boolean[] { true, true, true, true, false, false, false, false });
 }
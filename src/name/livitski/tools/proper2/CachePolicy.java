@@ -0,0 +1,268 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.io.File;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides how long a {@link Configuration} keeps the settings it
+ * has read in memory and keeps track of the cache's performance.
+ * Obtain instances of this class from its static factory methods
+ * and pass them to {@link Configuration#setCachePolicy(CachePolicy)}.
+ * Statistics reported by a policy object accumulate across all
+ * configurations that use it.
+ */
+public abstract class CachePolicy
+{
+ /**
+  * Returns a new policy that keeps the settings read until the
+  * {@link Configuration} is reconfigured.
+  */
+ public static CachePolicy strong()
+ {
+  return new CachePolicy("strong") {
+   @Override
+   <V> Entry<V> newEntry(File source)
+   {
+    return new Entry<V>() {
+     @Override
+     void set(V value)
+     {
+      this.value = value;
+     }
+
+     @Override
+     V get()
+     {
+      return value;
+     }
+
+     private V value;
+    };
+   }
+  };
+ }
+
+ /**
+  * Returns a new policy that keeps the settings read until the garbage
+  * collector reclaims them in response to memory demand. This is the
+  * default policy of a {@link Configuration}.
+  * @see SoftReference
+  */
+ public static CachePolicy soft()
+ {
+  return new CachePolicy("soft") {
+   @Override
+   <V> Entry<V> newEntry(File source)
+   {
+    return new Entry<V>() {
+     @Override
+     void set(V value)
+     {
+      this.value = new SoftReference<V>(value);
+     }
+
+     @Override
+     V get()
+     {
+      return value.get();
+     }
+
+     private Reference<V> value;
+    };
+   }
+  };
+ }
+
+ /**
+  * Returns a new policy that keeps the settings read for a fixed time
+  * interval measured from the start of their loading.
+  * @param duration the time that settings are kept for in the
+  * specified units, must be positive
+  * @param unit the time unit of the <code>duration</code> argument
+  */
+ public static CachePolicy timeToLive(long duration, TimeUnit unit)
+ {
+  if (0 >= duration)
+   throw new IllegalArgumentException("Invalid cache time-to-live: " + duration);
+  final long ttl = unit.toNanos(duration);
+  return new CachePolicy("time-to-live " + duration + ' ' + unit) {
+   @Override
+   <V> Entry<V> newEntry(File source)
+   {
+    final long loaded = System.nanoTime();
+    return new Entry<V>() {
+     @Override
+     void set(V value)
+     {
+      this.value = value;
+     }
+
+     @Override
+     V get()
+     {
+      return System.nanoTime() - loaded < ttl ? value : null;
+     }
+
+     private V value;
+    };
+   }
+  };
+ }
+
+ /**
+  * Returns a new policy that keeps the settings read while the
+  * modification time and size of the configuration file stay
+  * the same as they were when loading started. This policy queries
+  * the file system every time the settings are read.
+  */
+ public static CachePolicy validateOnStat()
+ {
+  return new CachePolicy("validate-on-stat") {
+   @Override
+   <V> Entry<V> newEntry(final File source)
+   {
+    final long modified = null == source ? 0L : source.lastModified();
+    final long length = null == source ? 0L : source.length();
+    return new Entry<V>() {
+     @Override
+     void set(V value)
+     {
+      this.value = value;
+     }
+
+     @Override
+     V get()
+     {
+      if (null != source
+        && (modified != source.lastModified() || length != source.length()))
+       return null;
+      return value;
+     }
+
+     private V value;
+    };
+   }
+  };
+ }
+
+ /**
+  * Returns the number of times that cached settings were used.
+  */
+ public long getHits()
+ {
+  return hits.sum();
+ }
+
+ /**
+  * Returns the number of times that settings had to be loaded, since
+  * no usable settings were cached.
+  */
+ public long getMisses()
+ {
+  return misses.sum();
+ }
+
+ /**
+  * Returns the number of {@link #getMisses() misses} that
+  * occurred after cached settings had been
+  * discarded by this policy, as opposed to initial loads.
+  */
+ public long getReloads()
+ {
+  return reloads.sum();
+ }
+
+ @Override
+ public String toString()
+ {
+  return "Cache policy " + name + " [hits: " + hits + ", misses: " + misses
+  	+ ", reloads: " + reloads + ']';
+ }
+
+ /**
+  * Cached settings along with the data needed to decide whether they
+  * are still usable.
+  * @param <V> type of the cached object
+  */
+ abstract static class Entry<V>
+ {
+  /**
+   * Stores the settings loaded after this entry has been created. Must be
+   * called once before this entry is shared with other threads.
+   */
+  abstract void set(V value);
+
+  /**
+   * Returns the cached object or <code>null</code> if this entry is
+   * no longer usable.
+   */
+  abstract V get();
+ }
+
+ /**
+  * Creates an empty cache entry. Called before the loading of settings
+  * starts.
+  * @param source the configuration file that will be read or
+  * <code>null</code> if there is no such file
+  */
+ abstract <V> Entry<V> newEntry(File source);
+
+ /**
+  * Returns the object cached in an entry and counts a hit if there
+  * is one. Misses are counted by {@link #recordMiss(Entry)}.
+  * @param entry the entry to query, or <code>null</code> if nothing
+  * is cached
+  * @return the cached object or <code>null</code> if it must be
+  * loaded
+  */
+ <V> V lookup(Entry<V> entry)
+ {
+  V value = null == entry ? null : entry.get();
+  if (null != value)
+   hits.increment();
+  return value;
+ }
+
+ /**
+  * Counts a miss. Must be called only by the thread that loads the
+  * settings, so that threads waiting for that load are not counted.
+  * @param discarded the entry found unusable, or <code>null</code>
+  * if nothing was cached
+  */
+ void recordMiss(Entry<?> discarded)
+ {
+  misses.increment();
+  if (null != discarded)
+   reloads.increment();
+ }
+
+ CachePolicy(String name)
+ {
+  this.name = name;
+ }
+
+ private final String name;
+ // counters are striped to keep cache hits free of contention
+ private final LongAdder hits = new LongAdder();
+ private final LongAdder misses = new LongAdder();
+ private final LongAdder reloads = new LongAdder();
+}
@@ -0,0 +1,83 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+/**
+ * Immutable table that looks up values by string keys ignoring case,
+ * without allocating folded copies of the keys. Keys are compared as
+ * {@link String#equalsIgnoreCase(String)} does, independently of the
+ * default locale. If several keys differ only in case, a key that
+ * matches exactly takes precedence.
+ * @param <V> the type of values in the table
+ */
+final class CaseFoldedTable<V>
+{
+ /**
+  * @param keys the keys of the table
+  * @param values the values that correspond to <code>keys</code>
+  */
+ CaseFoldedTable(String[] keys, V[] values)
+ {
+  int capacity = 2;
+  // keep the load factor at or below 0.5 to make probe sequences short
+  while (capacity < keys.length * 2)
+   capacity <<= 1;
+  this.keys = new String[capacity];
+  this.values = new Object[capacity];
+  this.mask = capacity - 1;
+  for (int i = 0; i < keys.length; i++)
+  {
+   int at = hash(keys[i]) & mask;
+   while (null != this.keys[at])
+    at = (at + 1) & mask;
+   this.keys[at] = keys[i];
+   this.values[at] = values[i];
+  }
+ }
+
+ /**
+  * Returns the value that corresponds to a key, or <code>null</code>
+  * if the table has no such key.
+  */
+ @SuppressWarnings("unchecked")
+ V get(String key)
+ {
+  Object found = null;
+  for (int at = hash(key) & mask;; at = (at + 1) & mask)
+  {
+   String candidate = keys[at];
+   if (null == candidate)
+    return (V)found;
+   if (candidate.equals(key))
+    return (V)values[at];
+   if (null == found && candidate.equalsIgnoreCase(key))
+    found = values[at];
+  }
+ }
+
+ private static int hash(String key)
+ {
+  int hash = 0;
+  for (int i = 0; i < key.length(); i++)
+   hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(key.charAt(i)));
+  return hash ^ (hash >>> 16);
+ }
+
+ private final String[] keys;
+ private final Object[] values;
+ private final int mask;
+}
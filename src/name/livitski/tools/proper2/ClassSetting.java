@@ -16,36 +16,133 @@
  */
 package name.livitski.tools.proper2;
 
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Reads a full class name from the configuration file
- * and loads that class in the current context.
+ * and loads that class in the current context. Classes are
+ * resolved once per {@link Thread#getContextClassLoader() context class loader}
+ * and load of this setting, so that repeated reads do not look them up
+ * again. Use {@link PluginSetting} to obtain instances of the
+ * configured class.
  * @param <D> the class that implements a specific setting
  */
-@SuppressWarnings("unchecked")
-public abstract class ClassSetting<D> extends AbstractSetting<D, Class>
+public abstract class ClassSetting<D> extends AbstractSetting<D, Class<?>>
 {
+ @SuppressWarnings("unchecked")
  @Override
- public Class<Class> getType()
+ public Class<Class<?>> getType()
  {
-  return Class.class;
+  return (Class<Class<?>>)(Class<?>)Class.class;
+ }
+
+ /**
+  * Returns the class named by this setting as seen by the
+  * {@link Thread#getContextClassLoader() context class loader} of
+  * the calling thread.
+  */
+ @Override
+ public Class<?> getValue() throws ConfigurationException
+ {
+  Class<?> value = super.getValue();
+  ClassLoader loader = Thread.currentThread().getContextClassLoader();
+  if (null == value || loader == resolvedBy)
+   return value;
+  AtomicReference<Resolution[]> resolved = this.resolved;
+  for (Resolution resolution : resolved.get())
+   if (loader == resolution.loader.get())
+   {
+    value = resolution.value.get();
+    if (null != value)
+     return value;
+   }
+  value = forName(valueString, loader);
+  Resolution added = new Resolution(loader, value);
+  for (;;)
+  {
+   Resolution[] current = resolved.get();
+   // drop the resolutions of discarded loaders and classes
+   Resolution[] next = new Resolution[current.length + 1];
+   int count = 0;
+   for (Resolution resolution : current)
+    if (null != resolution.value.get() && loader != resolution.loader.get())
+     next[count++] = resolution;
+   next[count++] = added;
+   if (resolved.compareAndSet(current, count == next.length ? next : Arrays.copyOf(next, count)))
+    return value;
+  }
  }
 
  @Override
- public Class getValue() throws ConfigurationException
+ protected Class<?> convert(String text) throws ConfigurationException
+ {
+  if (null == text)
+   return null;
+  ClassLoader loader = Thread.currentThread().getContextClassLoader();
+  Class<?> value = forName(text, loader);
+  resolvedBy = loader;
+  return value;
+ }
+
+ @Override
+ protected void loadValue(String valueString) throws ConfigurationException
+ {
+  resolvedBy = null;
+  resolved = new AtomicReference<Resolution[]>(NONE);
+  super.loadValue(valueString);
+ }
+
+ public ClassSetting(String name)
+ {
+  super(name);
+ }
+
+ private Class<?> forName(String text, ClassLoader loader) throws ConfigurationException
  {
   try
   {
-   return Class.forName((String)valueString, true, Thread.currentThread().getContextClassLoader());
+   return Class.forName(text, true, loader);
   }
   catch (ClassNotFoundException e)
   {
    throw new ConfigurationException(
-     this + " could not find class: " + valueString, e);
+     this + " could not find class: " + text, e);
   }
  }
 
- public ClassSetting(String name)
+ /**
+  * A class resolved by a class loader other than {@link #resolvedBy}.
+  * Holds both the loader and the class weakly, so that this handler
+  * does not keep them alive, since a class refers to its loader.
+  */
+ private static final class Resolution
  {
-  super(name);
+  Resolution(ClassLoader loader, Class<?> value)
+  {
+   this.loader = new WeakReference<ClassLoader>(loader);
+   this.value = new WeakReference<Class<?>>(value);
+  }
+
+  final Reference<ClassLoader> loader;
+  final Reference<Class<?>> value;
  }
+
+ private static final Resolution[] NONE = new Resolution[0];
+
+ /**
+  * The context class loader that resolved the value converted
+  * by the last load.
+  */
+ private volatile ClassLoader resolvedBy;
+ /**
+  * Classes resolved by other class loaders since the last load, replaced
+  * as a whole on each change, so that readers need no locks. A new
+  * holder is created by each load, so that resolutions of a previous
+  * value cannot leak into it.
+  */
+ private volatile AtomicReference<Resolution[]> resolved
+ 	= new AtomicReference<Resolution[]>(NONE);
 }
@@ -0,0 +1,378 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes binary images of configuration files that can be
+ * used as {@link ConfigurationSnapshot snapshots} without parsing.
+ * An image contains a hash table of the file's settings merged with
+ * their defaults, keys and values stored as UTF-16 text, and a checksum
+ * of its contents. Images also record the size and modification time
+ * of the file, the charset it was read in and a digest of the defaults,
+ * so that stale images can be detected. Since a change made soon after
+ * the file was modified may keep both its size and modification time,
+ * images also record when they were compiled and a checksum of the file,
+ * which is verified if the file was modified within the resolution of
+ * timestamps before that time. Images are memory-mapped
+ * when loaded, thus they must be replaced by renaming new files over
+ * them, never by rewriting them in place.
+ * @see ConfigurationCompiler
+ */
+final class CompiledImage
+{
+ /**
+  * Compiles a configuration file into an image. The image is written
+  * to a temporary file, which is then renamed, so that configurations
+  * that use the old image are not affected.
+  * @param source the configuration file
+  * @param charset the encoding of <code>source</code>
+  * @param defaults the default settings
+  * @param image the file to write the image to
+  * @throws ConfigurationException if the configuration could not be
+  * read or the image could not be written
+  */
+ static void compile(File source, Charset charset, Properties defaults, File image)
+   throws ConfigurationException
+ {
+  // read the clock first, so that later changes to the file either get
+  // a later modification time or are found by the checksum
+  long compiled = System.currentTimeMillis();
+  long modified = source.lastModified(), length = source.length();
+  int sourceChecksum = checksum(source);
+  ConfigurationSnapshot snapshot = PropertiesParser.parse(source, charset, defaults);
+  List<String> keys = new ArrayList<String>(snapshot.size());
+  for (String key : snapshot.keys())
+   keys.add(key);
+  int capacity = 2;
+  // keep the load factor at or below 0.5 to make probe sequences short
+  while (capacity < keys.size() * 2)
+   capacity <<= 1;
+  int[] table = new int[3 * capacity];
+  Arrays.fill(table, -1);
+  CharBuffer text = CharBuffer.allocate(1024);
+  for (String key : keys)
+  {
+   String value = snapshot.get(key);
+   int hash = spread(key.hashCode()), mask = capacity - 1;
+   int at = hash & mask;
+   while (-1 != table[3 * at + 1])
+    at = (at + 1) & mask;
+   table[3 * at] = hash;
+   text = append(text, key);
+   table[3 * at + 1] = text.position() - key.length();
+   text = append(text, value);
+   table[3 * at + 2] = text.position() - value.length();
+  }
+  text.flip();
+  byte[] charsetName = charset.name().getBytes(StandardCharsets.US_ASCII);
+  int headerSize = HEADER_SIZE + charsetName.length;
+  ByteBuffer out = ByteBuffer.allocate(headerSize + 4 * table.length + 2 * text.remaining());
+  out.putInt(MAGIC).putShort(VERSION).putShort((short)charsetName.length);
+  out.putInt(0); // checksum
+  out.putLong(length).putLong(modified).putLong(digest(defaults));
+  out.putInt(keys.size()).putInt(capacity);
+  out.putLong(compiled).putInt(sourceChecksum);
+  out.put(charsetName);
+  out.asIntBuffer().put(table);
+  out.position(out.position() + 4 * table.length);
+  out.asCharBuffer().put(text);
+  CRC32 crc = new CRC32();
+  crc.update(out.array(), CHECKSUM_OFFSET + 4, out.capacity() - CHECKSUM_OFFSET - 4);
+  out.putInt(CHECKSUM_OFFSET, (int)crc.getValue());
+  out.clear();
+  File temp = null;
+  try
+  {
+   File dir = image.getAbsoluteFile().getParentFile();
+   temp = File.createTempFile(image.getName(), ".tmp", dir);
+   try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE))
+   {
+    while (out.hasRemaining())
+     channel.write(out);
+    channel.force(true);
+   }
+   Files.move(temp.toPath(), image.toPath(),
+     StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   temp = null;
+  }
+  catch (IOException ioerr)
+  {
+   throw new ConfigurationException("Could not write configuration image " + image, ioerr);
+  }
+  finally
+  {
+   if (null != temp)
+    temp.delete();
+  }
+ }
+
+ /**
+  * Maps an image into memory if it is up to date.
+  * @param image the image file
+  * @param source the configuration file that the image must reflect
+  * @param charset the encoding that the file must have been read in
+  * @param defaults the defaults that the image must include
+  * @return the snapshot backed by the image or <code>null</code> if
+  * the image does not exist or is stale
+  * @throws ConfigurationException if the image could not be read or
+  * is corrupt
+  */
+ static ConfigurationSnapshot load(File image, File source, Charset charset, Properties defaults)
+   throws ConfigurationException
+ {
+  if (!image.isFile())
+   return null;
+  ByteBuffer buffer;
+  try (FileChannel channel = FileChannel.open(image.toPath(), StandardOpenOption.READ))
+  {
+   if (HEADER_SIZE > channel.size() || Integer.MAX_VALUE < channel.size())
+    throw corrupt(image);
+   buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+  }
+  catch (IOException ioerr)
+  {
+   throw new ConfigurationException("Could not read configuration image " + image, ioerr);
+  }
+  if (MAGIC != buffer.getInt(0) || VERSION != buffer.getShort(4))
+   throw new ConfigurationException(image + " is not a configuration image of a supported version");
+  // other fields of the header cannot be trusted before the checksum
+  CRC32 crc = new CRC32();
+  buffer.position(CHECKSUM_OFFSET + 4);
+  crc.update(buffer);
+  if (buffer.getInt(CHECKSUM_OFFSET) != (int)crc.getValue())
+   throw corrupt(image);
+  int charsetLength = buffer.getShort(6);
+  if (0 > charsetLength || buffer.capacity() - HEADER_SIZE < charsetLength)
+   throw corrupt(image);
+  long modified = buffer.getLong(20);
+  if (buffer.getLong(12) != source.length() || modified != source.lastModified())
+   return null;
+  byte[] charsetName = new byte[charsetLength];
+  buffer.position(HEADER_SIZE);
+  buffer.get(charsetName);
+  if (!charset.name().equals(new String(charsetName, StandardCharsets.US_ASCII))
+    || buffer.getLong(28) != digest(defaults))
+   return null;
+  // the file may have changed without a new modification time
+  // if it had been modified just before the image was compiled
+  if (modified + SharedSnapshots.TIMESTAMP_RESOLUTION >= buffer.getLong(44)
+    && buffer.getInt(52) != checksum(source))
+   return null;
+  int size = buffer.getInt(36), capacity = buffer.getInt(40);
+  int tableOffset = HEADER_SIZE + charsetLength;
+  // the table must be a power of two at most half full and fit the image
+  if (2 > capacity || 0 != (capacity & capacity - 1) || 0 > size || capacity / 2 < size
+    || (buffer.capacity() - tableOffset) / 12 < capacity)
+   throw corrupt(image);
+  buffer.position(tableOffset);
+  ByteBuffer table = buffer.slice();
+  buffer.position(tableOffset + 12 * capacity);
+  ByteBuffer text = buffer.slice();
+  return new Image(size, capacity, table.asIntBuffer().asReadOnlyBuffer(), text.asCharBuffer());
+ }
+
+ /**
+  * Computes a digest of default settings that does not depend on
+  * the order of entries.
+  */
+ static long digest(Properties defaults)
+ {
+  List<String> keys = new ArrayList<String>(defaults.stringPropertyNames());
+  keys.sort(null);
+  CRC32 crc = new CRC32();
+  for (String key : keys)
+  {
+   crc.update(key.getBytes(StandardCharsets.UTF_8));
+   crc.update(0);
+   crc.update(defaults.getProperty(key).getBytes(StandardCharsets.UTF_8));
+   crc.update(0);
+  }
+  return (long)keys.size() << 32 | crc.getValue();
+ }
+
+ /**
+  * Computes a checksum of the contents of a configuration file.
+  */
+ private static int checksum(File source) throws ConfigurationException
+ {
+  CRC32 crc = new CRC32();
+  ByteBuffer buffer = ByteBuffer.allocate(8192);
+  try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ))
+  {
+   while (0 <= channel.read(buffer))
+   {
+    buffer.flip();
+    crc.update(buffer);
+    buffer.clear();
+   }
+  }
+  catch (IOException ioerr)
+  {
+   throw new ConfigurationException("Error reading configuration file " + source, ioerr);
+  }
+  return (int)crc.getValue();
+ }
+
+ private static ConfigurationException corrupt(File image)
+ {
+  return new ConfigurationException("Configuration image " + image + " is corrupt");
+ }
+
+ private static CharBuffer append(CharBuffer text, String string)
+ {
+  int length = string.length();
+  if (text.remaining() < length + 2)
+  {
+   CharBuffer larger = CharBuffer.allocate(
+     Math.max(2 * text.capacity(), text.position() + length + 2));
+   text.flip();
+   larger.put(text);
+   text = larger;
+  }
+  text.put((char)(length >>> 16)).put((char)length).put(string);
+  return text;
+ }
+
+ private static int spread(int hash)
+ {
+  return hash ^ (hash >>> 16);
+ }
+
+ private CompiledImage()
+ {
+ }
+
+ /**
+  * Snapshot that looks up settings in a mapped image. Each entry of the
+  * table consists of the spread hash of a key and the offsets of the
+  * key and its value in the text, which holds each string preceded by
+  * its length in two characters.
+  */
+ private static final class Image extends ConfigurationSnapshot
+ {
+  Image(int size, int capacity, IntBuffer table, CharBuffer text)
+  {
+   this.size = size;
+   this.mask = capacity - 1;
+   this.table = table;
+   this.text = text;
+   bindSlots();
+  }
+
+  @Override
+  public String get(String key)
+  {
+   int at = entryOf(key);
+   return 0 > at ? null : valueAt(at);
+  }
+
+  @Override
+  int entryOf(String key)
+  {
+   int hash = spread(key.hashCode());
+   for (int at = hash & mask;; at = (at + 1) & mask)
+   {
+    int keyOffset = table.get(3 * at + 1);
+    if (-1 == keyOffset)
+     return -1;
+    if (hash == table.get(3 * at) && matches(keyOffset, key))
+     return at;
+   }
+  }
+
+  @Override
+  String valueAt(int entry)
+  {
+   return string(table.get(3 * entry + 2));
+  }
+
+  @Override
+  public int size()
+  {
+   return size;
+  }
+
+  @Override
+  public Iterable<String> keys()
+  {
+   List<String> keys = new ArrayList<String>(size);
+   for (int at = 0; at <= mask; at++)
+   {
+    int keyOffset = table.get(3 * at + 1);
+    if (-1 != keyOffset)
+     keys.add(string(keyOffset));
+   }
+   return keys;
+  }
+
+  private boolean matches(int offset, String key)
+  {
+   int length = key.length();
+   if (length(offset) != length)
+    return false;
+   for (int i = 0; i < length; i++)
+    if (text.get(offset + i) != key.charAt(i))
+     return false;
+   return true;
+  }
+
+  private String string(int offset)
+  {
+   char[] chars = new char[length(offset)];
+   CharBuffer source = text.duplicate();
+   source.position(offset);
+   source.get(chars);
+   return new String(chars);
+  }
+
+  private int length(int offset)
+  {
+   return text.get(offset - 2) << 16 | text.get(offset - 1);
+  }
+
+  private final int size;
+  private final int mask;
+  private final IntBuffer table;
+  private final CharBuffer text;
+ }
+
+ private static final int MAGIC = 0x50525032; // "PRP2"
+ private static final short VERSION = 2;
+ private static final int CHECKSUM_OFFSET = 8;
+ /**
+  * The size of the fixed part of the header, which is followed by the
+  * name of the charset.
+  */
+ private static final int HEADER_SIZE = 56;
+}
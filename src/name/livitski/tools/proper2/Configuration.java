@@ -17,16 +17,36 @@
 package name.livitski.tools.proper2;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -81,7 +101,7 @@ public class Configuration
  public <T, D extends AbstractSetting<D,T>> T readSetting(Class<D> clazz)
    throws ConfigurationException
  {
-   return readSetting(clazz, readConfiguration());
+   return findSetting(clazz).getValue();
  }
 
  /**
@@ -120,7 +140,7 @@ public class Configuration
  public <T, D extends AbstractSetting<D,T>> T readSetting(AbstractSetting<D,T> handler)
    throws ConfigurationException
  {
-   return readSetting(handler, readConfiguration());
+   return readSetting(handler, readSnapshot());
  }
 
  /**
@@ -140,6 +160,103 @@ public class Configuration
   return handler.getValue();
  }
 
+ /**
+  * A version of {@link #readSetting(Class)} that reads a setting
+  * from a configuration snapshot. Call {@link #readSnapshot()} first,
+  * then use the return value to read all the settings needed
+  * from the same version of the configuration.
+  * @param clazz the class that defines the setting to be read
+  * @param snapshot the object returned from {@link #readSnapshot()}
+  */
+ public <T, D extends AbstractSetting<D,T>> T readSetting(Class<D> clazz, ConfigurationSnapshot snapshot)
+ 	throws ConfigurationException
+ {
+  return findSetting(clazz, snapshot).getValue();
+ }
+
+ /**
+  * A version of {@link #readSetting(AbstractSetting)} that reads
+  * a setting from a configuration snapshot.
+  * @param handler the dynamic handler object that will read and convert
+  * the setting. The configuration will hold no references to the handler
+  * after this method terminates. 
+  * @param snapshot the object returned from {@link #readSnapshot()}
+  */
+ public <T, D extends AbstractSetting<D,T>> T readSetting(AbstractSetting<D,T> handler, ConfigurationSnapshot snapshot)
+ 	throws ConfigurationException
+ {
+  handler.load(snapshot);
+  return handler.getValue();
+ }
+
+ /**
+  * Reads an integer setting from this container without boxing
+  * its value. Like {@link #readSetting(Class)}, this method should
+  * not be called on a {@link #isCachingEnabled() non-caching}
+  * settings container.
+  * @param clazz the class that defines the setting to be read
+  * @return the setting's value read
+  * @throws ConfigurationException if there was an error reading the
+  * settings, the setting read was invalid, or it is missing
+  * @see IntegerSetting#getInt()
+  */
+ public <D extends IntegerSetting<D>> int readInt(Class<D> clazz)
+   throws ConfigurationException
+ {
+  return findSetting(clazz).getInt();
+ }
+
+ /**
+  * Reads a long integer setting from this container without boxing
+  * its value.
+  * @param clazz the class that defines the setting to be read
+  * @see #readInt(Class)
+  * @see LongSetting#getLong()
+  */
+ public <D extends LongSetting<D>> long readLong(Class<D> clazz)
+   throws ConfigurationException
+ {
+  return findSetting(clazz).getLong();
+ }
+
+ /**
+  * Reads a floating-point setting from this container without boxing
+  * its value.
+  * @param clazz the class that defines the setting to be read
+  * @see #readInt(Class)
+  * @see FloatSetting#getFloat()
+  */
+ public <D extends FloatSetting<D>> float readFloat(Class<D> clazz)
+   throws ConfigurationException
+ {
+  return findSetting(clazz).getFloat();
+ }
+
+ /**
+  * Reads a double-precision floating-point setting from this container
+  * without boxing its value.
+  * @param clazz the class that defines the setting to be read
+  * @see #readInt(Class)
+  * @see DoubleSetting#getDouble()
+  */
+ public <D extends DoubleSetting<D>> double readDouble(Class<D> clazz)
+   throws ConfigurationException
+ {
+  return findSetting(clazz).getDouble();
+ }
+
+ /**
+  * Reads a boolean setting from this container as a primitive value.
+  * @param clazz the class that defines the setting to be read
+  * @see #readInt(Class)
+  * @see BooleanSetting#getBoolean()
+  */
+ public <D extends BooleanSetting<D>> boolean readBoolean(Class<D> clazz)
+   throws ConfigurationException
+ {
+  return findSetting(clazz).getBoolean();
+ }
+
  /**
   * Returns a {@link AbstractSetting setting container} populated
   * with a value read from the configuration, or an
@@ -162,7 +279,8 @@ public class Configuration
  public <D extends AbstractSetting<D,?>> D findSetting(Class<D> clazz)
   throws ConfigurationException
  {
-   return findSetting(clazz, readConfiguration());
+   Snapshot snapshot = currentSnapshot();
+   return findSetting(clazz, snapshot.values, snapshot.settings);
  }
 
  /**
@@ -170,111 +288,636 @@ public class Configuration
   * {@link #isCachingEnabled() non-caching} settings containers.
   * Call {@link #readConfiguration()} first, then use the return
   * value to read all the settings needed.
+  * Cached handlers are looked up without locking, and concurrent
+  * first-time requests for a handler class share a single instance.
   * @param clazz the class that defines the setting to be read
   * @param config the object returned from {@link #readConfiguration()}
   */
  public <D extends AbstractSetting<D,?>> D findSetting(Class<D> clazz, Properties config)
    throws ConfigurationException
  {
-  @SuppressWarnings("unchecked")
-  D setting = (D)settings.get(clazz);
-  if (null == setting)
-  {
+  Snapshot snapshot = cachedSnapshot();
+  if (null != snapshot && snapshot.values.isCopiedTo(config))
+   return findSetting(clazz, config, snapshot.settings);
+  else
+   return findSetting(clazz, config, settings);
+ }
+
+ /**
+  * A version of {@link #findSetting(Class)} that reads a setting
+  * from a configuration snapshot. Handlers are cached along with the
+  * snapshot that this object has cached, if that is the argument.
+  * @param clazz the class that defines the setting to be read
+  * @param snapshot the object returned from {@link #readSnapshot()}
+  */
+ public <D extends AbstractSetting<D,?>> D findSetting(Class<D> clazz, ConfigurationSnapshot snapshot)
+   throws ConfigurationException
+ {
+  Snapshot cached = cachedSnapshot();
+  if (null != cached && cached.values == snapshot)
+   return findSetting(clazz, snapshot, cached.settings);
+  else
+   return findSetting(clazz, snapshot, settings);
+ }
+
+ /**
+  * Returns a view of the settings in this configuration whose keys
+  * start with a prefix. Handlers read through the view find their
+  * settings under that prefix, so that a handler class can be written
+  * once and read from any number of sections of the configuration.
+  * Handlers are cached per prefix along with the
+  * {@link #isCachingEnabled() cached} settings.
+  * @param prefix the prefix of keys in the view, with or without a
+  * trailing dot, e.g. <code>db.primary</code>
+  * @return the view of settings under <code>prefix</code>
+  * @see ConfigurationSnapshot#scope(String)
+  */
+ public ConfigurationScope scope(String prefix)
+ {
+  return new ConfigurationScope(this, ConfigurationScope.normalize(prefix));
+ }
+
+ /**
+  * Creates, loads and validates handlers of multiple settings in a
+  * single pass over the current {@link #readSnapshot() snapshot} of the
+  * configuration. Handlers that are not {@link AbstractSetting#isTransient()
+  * transient} are cached, so that subsequent reads of their settings
+  * do not have to create them. Call this method at startup to
+  * avoid delays when the settings are first read.
+  * @param classes classes that define the settings to be read
+  * @throws ConfigurationException if there was an error reading the
+  * settings, or any of the settings was invalid or, for a required
+  * setting, missing. All such problems are reported by a single
+  * exception, which has the exception thrown first as its cause, and the
+  * others {@link Throwable#getSuppressed() suppressed}.
+  * @see #findSetting(Class)
+  */
+ public void preloadSettings(Collection<? extends Class<? extends AbstractSetting<?,?>>> classes)
+   throws ConfigurationException
+ {
+  Snapshot snapshot = currentSnapshot();
+  List<RuntimeException> failures = new ArrayList<RuntimeException>();
+  for (Class<? extends AbstractSetting<?,?>> clazz : classes)
    try
    {
-    setting = (D) clazz.newInstance();
+    preloadSetting(clazz, snapshot);
    }
-   catch (Exception e)
+   catch (ConfigurationException | IllegalArgumentException failure)
    {
-    throw new IllegalArgumentException(
-      "Could not create a setting handler for " + clazz, e);
+    failures.add(failure);
    }
-   setting.load(config);
-   if (!setting.isTransient())
-    settings.put(clazz, setting);
-  }
-  return setting;
+  reportFailures(failures, classes.size());
+ }
+
+ /**
+  * Loads and validates multiple {@link #readSetting(AbstractSetting)
+  * dynamic handlers} from the current {@link #readSnapshot() snapshot}
+  * of the configuration. The configuration holds no references to the
+  * handlers after this method terminates.
+  * @param handlers the dynamic handler objects that will read and convert
+  * the settings
+  * @throws ConfigurationException if there was an error reading the
+  * settings, or any of the settings was invalid or, for a required
+  * setting, missing. All such problems are reported by a single
+  * exception, as with {@link #preloadSettings(Collection)}.
+  */
+ public void loadSettings(Collection<? extends AbstractSetting<?,?>> handlers)
+   throws ConfigurationException
+ {
+  ConfigurationSnapshot snapshot = readSnapshot();
+  List<RuntimeException> failures = new ArrayList<RuntimeException>();
+  for (AbstractSetting<?,?> handler : handlers)
+   try
+   {
+    handler.load(snapshot);
+    handler.getValue();
+   }
+   catch (ConfigurationException failure)
+   {
+    failures.add(failure);
+   }
+  reportFailures(failures, handlers.size());
+ }
+
+ /**
+  * Subscribes a listener to changes of all settings whose keys start
+  * with a prefix. Changes are detected when this object reads its
+  * settings anew, e.g. when it {@link #isReloadingEnabled() reloads}
+  * a modified configuration file, or when its
+  * {@link #getCachePolicy() cache policy} expires the cached settings.
+  * Each such event produces at most one notification per listener.
+  * @param keyPrefix the prefix of keys of settings to watch, or an
+  * empty string to watch all settings
+  * @param listener the object to notify about changes
+  */
+ public void addListener(String keyPrefix, ConfigurationListener listener)
+ {
+  subscribe(new Subscription(keyPrefix, true, listener));
+ }
+
+ /**
+  * Subscribes a listener to changes of the setting handled by a class.
+  * @param clazz the class of handlers of the setting to watch
+  * @param listener the object to notify about changes
+  * @throws IllegalArgumentException if <code>clazz</code> cannot be
+  * instantiated or its handlers have no name
+  * @see #addListener(String, ConfigurationListener)
+  */
+ public <D extends AbstractSetting<D,?>> void addListener(Class<D> clazz, ConfigurationListener listener)
+ {
+  String key = newSetting(clazz).getName();
+  if (null == key)
+   throw new IllegalArgumentException("Handlers of " + clazz + " have no key to watch");
+  subscribe(new Subscription(key, false, listener));
+ }
+
+ /**
+  * Cancels all subscriptions of a listener.
+  * @param listener the listener to remove
+  */
+ public synchronized void removeListener(ConfigurationListener listener)
+ {
+  List<Subscription> retained = new ArrayList<Subscription>();
+  for (Subscription subscription : subscriptions)
+   if (subscription.listener != listener)
+    retained.add(subscription);
+  subscriptions = retained.toArray(new Subscription[retained.size()]);
+  if (0 == subscriptions.length)
+   lastPublished.set(null);
+ }
+
+ /**
+  * Returns the executor that finds changes of settings and notifies
+  * {@link #addListener(String, ConfigurationListener) listeners}
+  * about them.
+  */
+ public Executor getListenerExecutor()
+ {
+  return listenerExecutor;
+ }
+
+ /**
+  * Changes the executor that finds changes of settings and notifies
+  * listeners about them. The default executor runs these tasks in a
+  * single daemon thread shared by all configurations, so that listeners
+  * receive the notifications in order and never concurrently. Other
+  * executors may not provide these guarantees.
+  * @param listenerExecutor the new executor, must not be <code>null</code>
+  */
+ public void setListenerExecutor(Executor listenerExecutor)
+ {
+  if (null == listenerExecutor)
+   throw new NullPointerException("Listener executor must not be null");
+  this.listenerExecutor = listenerExecutor;
  }
 
  /**
   * Reads this object's configuration settings and caches them for future use
-  * if caching is enabled.
+  * if caching is enabled. The returned map may be shared with other
+  * configurations, so it is read-only: methods that would modify it
+  * throw an {@link UnsupportedOperationException}. Modify its
+  * {@link Properties#clone() clone} instead. {@link #readSnapshot()}
+  * is a faster alternative to this method.
   * @return configuration settings map
   * @throws ConfigurationException if there was an error reading the
   * settings
   * @see #isCachingEnabled()
+  * @see #isReloadingEnabled()
   */
  public Properties readConfiguration()
 	throws ConfigurationException
  {
-  Properties config = null;
-  if (cachingEnabled && null != configCache)
-   config = configCache.get();
-  if (null == config)
-  {
-   config = readConfigurationFromFile();
-   if (cachingEnabled)
-    configCache = new SoftReference<Properties>(config);
-  }
-  return config;
+  return currentSnapshot().values.toProperties();
  }
 
  /**
-  * Reads configuration settings from a properties file with optional
-  * defaults.
-  * @return configuration settings map
+  * Assigns a compact integer slot to the key of a setting, or returns
+  * the slot assigned to that key earlier. Snapshots bind the slots of
+  * registered keys they contain to their entries when they are created,
+  * so that {@link ConfigurationSnapshot#get(int) lookups by slot} do not
+  * hash the keys. Slots are shared by all configurations in a process,
+  * since configurations may share their snapshots. Their number is
+  * limited, and keys registered after the limit is reached must be
+  * looked up by name. {@link AbstractSetting Handlers} register their
+  * keys when they are created.
+  * @param key the key of a setting in the properties' file
+  * @return the slot assigned to <code>key</code>, or <code>-1</code>
+  * if no slots are left
+  */
+ public int registerKey(String key)
+ {
+  return SettingKeys.register(key);
+ }
+
+ /**
+  * Reads this object's configuration settings and caches them for future use
+  * if caching is enabled. This method returns the same settings as
+  * {@link #readConfiguration()} in a form that is faster to query. 
+  * @return snapshot of the configuration settings
   * @throws ConfigurationException if there was an error reading the
   * settings
+  * @see #isCachingEnabled()
+  * @see #isReloadingEnabled()
   */
- protected Properties readConfigurationFromFile()
+ public ConfigurationSnapshot readSnapshot()
+	throws ConfigurationException
+ {
+  return currentSnapshot().values;
+ }
+
+ /**
+  * Tells whether this object watches its {@link #getConfigFile() configuration
+  * file} for changes and reloads it in the background when it changes.
+  * The default is <code>false</code>.
+  * @see #setReloadingEnabled(boolean)
+  */
+ public boolean isReloadingEnabled()
+ {
+  return null != watcher;
+ }
+
+ /**
+  * Starts or stops watching the {@link #getConfigFile() configuration file}
+  * for changes. While reloading is enabled, a daemon thread re-reads
+  * the file each time it changes, creates and loads the handlers
+  * cached for the previous version of the configuration, and then
+  * replaces the configuration and those handlers in a single step.
+  * Readers are never blocked by a reload and see either the old or the
+  * new configuration in full. The reloaded configuration is kept
+  * regardless of the {@link #getCachePolicy() cache policy}. Changes
+  * that fail to load or to satisfy the cached handlers are logged
+  * and ignored. 
+  * @param reloadingEnabled whether this object should watch its
+  * configuration file
+  * @throws ConfigurationException if there is no configuration file
+  * to watch or the watch could not be established
+  * @see #isCachingEnabled()
+  */
+ public synchronized void setReloadingEnabled(boolean reloadingEnabled)
  	throws ConfigurationException
  {
-  Reader input = null;
-  try {
-   final Properties defaults = new Properties();
-   InputStream res = null == defaultsResource ? null : forClass.getResourceAsStream(defaultsResource);
-   if (null != res)
+  if (reloadingEnabled == isReloadingEnabled())
+   return;
+  if (reloadingEnabled)
+  {
+   if (null == configFile)
+    throw new ConfigurationException(
+      "Cannot watch for configuration changes, since no configuration file is set");
+   watcher = new Watcher(configFile);
+   watcher.start();
+  }
+  else
+  {
+   watcher.close();
+   watcher = null;
+  }
+  reloadedSnapshot.set(null);
+ }
+
+ private Snapshot currentSnapshot()
+ 	throws ConfigurationException
+ {
+  Snapshot snapshot;
+  if (isReloadingEnabled())
+  {
+   snapshot = reloadedSnapshot.get();
+   if (null == snapshot)
    {
-    input = new InputStreamReader(res);
-    try
-    {
-     defaults.load(input);
-     input.close();
-     input = null;
-    }
-    catch (IOException ioerr)
-    {
-     throw new ConfigurationException(
-       "Error reading configuration defaults from " + forClass.getResource(defaultsResource),
-       ioerr);
-    }
+    snapshot = new Snapshot(readSnapshotFromFile());
+    if (!reloadedSnapshot.compareAndSet(null, snapshot))
+     snapshot = reloadedSnapshot.get();
    }
-   Properties config = new Properties(defaults);
-   if (null != configFile)
-    try
-    {
-     input = new FileReader(configFile);
-     config.load(input);
-     input.close();
-     input = null;
-    }
-    catch (IOException ioerr)
-    {
-     throw new ConfigurationException(
-       "Error reading configuration file " + configFile,
-       ioerr);
-    }
-   return config;
   }
-  finally
+  else if (cachingEnabled)
   {
-   if (null != input)
-    try { input.close(); }
-    catch(Exception fail)
+   CachePolicy policy = cachePolicy;
+   CachePolicy.Entry<Snapshot> cache = configCache;
+   snapshot = policy.lookup(cache);
+   if (null == snapshot)
+    synchronized (cacheLock)
     {
-     log.warn("Could not close a configuration file: " + fail.getMessage(), fail);
+     // another thread may have reloaded the configuration meanwhile
+     CachePolicy.Entry<Snapshot> current = configCache;
+     if (cache != current)
+      snapshot = policy.lookup(current);
+     if (null == snapshot)
+     {
+      policy.recordMiss(current);
+      cache = policy.newEntry(configFile);
+      snapshot = new Snapshot(readSnapshotFromFile());
+      cache.set(snapshot);
+      configCache = cache;
+     }
     }
   }
+  else
+   snapshot = new Snapshot(readSnapshotFromFile());
+  if (0 < subscriptions.length)
+   publish(snapshot.values);
+  return snapshot;
+ }
+
+ private synchronized void subscribe(Subscription subscription)
+ {
+  Subscription[] subscriptions = Arrays.copyOf(this.subscriptions, this.subscriptions.length + 1);
+  subscriptions[subscriptions.length - 1] = subscription;
+  this.subscriptions = subscriptions;
+  // changes are found relative to the settings read before the first subscription
+  Snapshot cached = cachedSnapshot();
+  if (null != cached)
+   lastPublished.compareAndSet(null, cached.values);
+ }
+
+ /**
+  * Schedules the notification of listeners if the settings have
+  * changed since the last call. Differences are found on the
+  * {@link #getListenerExecutor() listener executor}, which keeps the
+  * cost of reading settings low.
+  */
+ private void publish(final ConfigurationSnapshot current)
+ {
+  final ConfigurationSnapshot previous = lastPublished.get();
+  if (current == previous || !lastPublished.compareAndSet(previous, current)
+    || null == previous)
+   return;
+  final Subscription[] subscriptions = this.subscriptions;
+  listenerExecutor.execute(() -> notifyListeners(previous, current, subscriptions));
+ }
+
+ private void notifyListeners(ConfigurationSnapshot previous, ConfigurationSnapshot current,
+   Subscription[] subscriptions)
+ {
+  Map<ConfigurationListener, Set<String>> affected
+   = new IdentityHashMap<ConfigurationListener, Set<String>>();
+  // changes under each prefix are found once for all of its subscriptions
+  Map<String, Set<String>> changes = new HashMap<String, Set<String>>();
+  for (Subscription subscription : subscriptions)
+   if (subscription.prefix)
+   {
+    Set<String> changed = changes.get(subscription.key);
+    if (null == changed)
+     changes.put(subscription.key, changed = changedKeys(previous, current, subscription.key));
+    for (String key : changed)
+     addAffected(affected, subscription.listener, key);
+   }
+   else if (!equal(previous.get(subscription.key), current.get(subscription.key)))
+    addAffected(affected, subscription.listener, subscription.key);
+  for (Map.Entry<ConfigurationListener, Set<String>> entry : affected.entrySet())
+   try
+   {
+    entry.getKey().configurationChanged(new ConfigurationChange(this, previous, current,
+      Collections.unmodifiableSet(entry.getValue())));
+   }
+   catch (RuntimeException failure)
+   {
+    log.error("Listener " + entry.getKey() + " failed to process a configuration change", failure);
+   }
+ }
+
+ /**
+  * Compares the settings under a prefix in two snapshots. Only the
+  * keys under the prefix are visited, through the sorted index of
+  * each snapshot.
+  */
+ private static Set<String> changedKeys(ConfigurationSnapshot previous,
+   ConfigurationSnapshot current, String prefix)
+ {
+  Set<String> changed = new HashSet<String>();
+  for (String key : current.keysWithPrefix(prefix))
+   if (!equal(previous.get(key), current.get(key)))
+    changed.add(key);
+  for (String key : previous.keysWithPrefix(prefix))
+   if (null == current.get(key))
+    changed.add(key);
+  return changed;
+ }
+
+ private static boolean equal(String value, String other)
+ {
+  return null == value ? null == other : value.equals(other);
+ }
+
+ private static void addAffected(Map<ConfigurationListener, Set<String>> affected,
+   ConfigurationListener listener, String key)
+ {
+  Set<String> keys = affected.get(listener);
+  if (null == keys)
+   affected.put(listener, keys = new TreeSet<String>());
+  keys.add(key);
+ }
+
+ private Snapshot cachedSnapshot()
+ {
+  Snapshot snapshot = reloadedSnapshot.get();
+  if (null == snapshot && cachingEnabled)
+  {
+   CachePolicy.Entry<Snapshot> cache = configCache;
+   if (null != cache)
+    snapshot = cache.get();
+  }
+  return snapshot;
+ }
+
+ private <D extends AbstractSetting<D,?>> D findSetting(
+   Class<D> clazz, Object source, ConcurrentMap<Class<?>, Object> registry)
+   throws ConfigurationException
+ {
+  for (;;)
+  {
+   Object entry = registry.get(clazz);
+   if (null == entry)
+   {
+    PendingSetting pending = new PendingSetting(registry);
+    entry = registry.putIfAbsent(clazz, pending);
+    if (null == entry)
+     return pending.load(clazz, source);
+   }
+   if (TRANSIENT == entry)
+   {
+    D setting = newSetting(clazz);
+    loadSetting(setting, source);
+    return setting;
+   }
+   if (entry instanceof PendingSetting)
+   {
+    D setting = ((PendingSetting)entry).await(clazz);
+    // a failed or transient handler is not shared, so try on our own
+    if (null != setting)
+     return setting;
+   }
+   else
+    return clazz.cast(entry);
+  }
+ }
+
+ /**
+  * Returns the current settings under a prefix.
+  * @param prefix a prefix that ends with a dot or an empty string
+  */
+ ConfigurationSnapshot readSnapshot(String prefix)
+ 	throws ConfigurationException
+ {
+  return currentSnapshot().values.scope(prefix);
+ }
+
+ /**
+  * Returns a handler loaded from the current settings under a prefix,
+  * cached in the registry of that prefix.
+  * @param prefix a prefix that ends with a dot or an empty string
+  */
+ <D extends AbstractSetting<D,?>> D findScopedSetting(Class<D> clazz, String prefix)
+ 	throws ConfigurationException
+ {
+  Snapshot snapshot = currentSnapshot();
+  return findSetting(clazz, snapshot.values.scope(prefix), snapshot.settings(prefix));
+ }
+
+ @SuppressWarnings({ "unchecked", "rawtypes" })
+ private void preloadSetting(Class clazz, Snapshot snapshot)
+   throws ConfigurationException
+ {
+  findSetting(clazz, snapshot.values, snapshot.settings).getValue();
+ }
+
+ private static void reportFailures(List<RuntimeException> failures, int count)
+   throws ConfigurationException
+ {
+  if (failures.isEmpty())
+   return;
+  StringBuilder message = new StringBuilder();
+  message.append(failures.size()).append(" of ").append(count)
+  	.append(" setting(s) could not be loaded:");
+  for (RuntimeException failure : failures)
+   message.append("\n ").append(failure.getMessage());
+  ConfigurationException error
+  	= new ConfigurationException(message.toString(), failures.get(0));
+  for (RuntimeException failure : failures.subList(1, failures.size()))
+   error.addSuppressed(failure);
+  throw error;
+ }
+
+ /**
+  * Makes this object create handlers of a class by calling a
+  * factory instead of that class's default constructor. Handlers that
+  * this object has already cached are not affected.
+  * @param clazz the class of handlers that the factory creates
+  * @param factory the object that creates handlers of
+  * <code>clazz</code> or <code>null</code> to use the
+  * default constructor of <code>clazz</code>
+  */
+ public <D extends AbstractSetting<D,?>> void registerFactory(
+   Class<D> clazz, Supplier<? extends D> factory)
+ {
+  if (null == factory)
+   factories.remove(clazz);
+  else
+   factories.put(clazz, factory);
+ }
+
+ private <D extends AbstractSetting<D,?>> D newSetting(Class<D> clazz)
+ {
+  Supplier<?> factory = factories.get(clazz);
+  if (null == factory)
+   factory = CONSTRUCTORS.get(clazz);
+  return clazz.cast(factory.get());
+ }
+
+ private static void loadSetting(AbstractSetting<?,?> setting, Object source)
+   throws ConfigurationException
+ {
+  if (source instanceof ConfigurationSnapshot)
+   setting.load((ConfigurationSnapshot)source);
+  else
+   setting.load((Properties)source);
+ }
+
+ /**
+  * Reads configuration settings from a properties file with optional
+  * defaults and takes a snapshot of them. The file is decoded with the
+  * {@link #getCharset() configured charset} and parsed directly into
+  * the snapshot. The snapshot is shared with other configurations of
+  * the same class that read the same file with the same defaults and
+  * charset, until that file changes. If this object has a
+  * {@link #setSources(List) chain of sources}, it reads the sources
+  * instead of the file and defaults. If there is an up-to-date
+  * {@link #setImageFile(File) image} of the file, the snapshot is mapped
+  * from the image instead and shared in the same way. In
+  * {@link #isLazyLoading() lazy mode}, the file is indexed rather than
+  * parsed. Subclasses that read settings
+  * from elsewhere should override this method. If a subclass overrides
+  * {@link #readConfigurationFromFile()} instead, the snapshot is taken
+  * of the map returned by that method and is not shared.
+  * @return snapshot of the configuration settings
+  * @throws ConfigurationException if there was an error reading the
+  * settings
+  * @see #readConfigurationFromFile()
+  */
+ protected ConfigurationSnapshot readSnapshotFromFile()
+ 	throws ConfigurationException
+ {
+  SourceChain sources = this.sources;
+  if (null != sources)
+   return sources.read();
+  if (READS_PROPERTIES.get(getClass()))
+   return ConfigurationSnapshot.of(readConfigurationFromFile());
+  final File configFile = this.configFile;
+  final Properties defaults = SharedDefaults.get(forClass, defaultsResource);
+  if (null == configFile)
+   return ConfigurationSnapshot.of(defaults);
+  final Charset charset = this.charset;
+  final File imageFile = this.imageFile;
+  final boolean lazy = lazyLoading && LazySnapshot.supports(charset);
+  // mapped images are shared as well, so that reading an unchanged file
+  // returns the same snapshot and listeners have nothing to compare
+  return SharedSnapshots.get(configFile, defaults, charset, lazy, getClass(),
+    () -> readFile(configFile, imageFile, charset, defaults, lazy));
+ }
+
+ private ConfigurationSnapshot readFile(File configFile, File imageFile,
+   Charset charset, Properties defaults, boolean lazy)
+ 	throws ConfigurationException
+ {
+  if (null != imageFile)
+   try
+   {
+    ConfigurationSnapshot image = CompiledImage.load(imageFile, configFile, charset, defaults);
+    if (null != image)
+     return image;
+    log.info("Configuration image " + imageFile + " is out of date, reading " + configFile);
+   }
+   catch (ConfigurationException failure)
+   {
+    log.warn(failure.getMessage() + ", reading " + configFile, failure);
+   }
+  return lazy ? LazySnapshot.index(configFile, charset, defaults)
+    : PropertiesParser.parse(configFile, charset, defaults);
+ }
+
+
+ /**
+  * Reads configuration settings from a properties file with optional
+  * defaults. The defaults resource is parsed once and shared with
+  * other configurations that use it. This object calls this method
+  * to read its settings only if a subclass overrides it, otherwise
+  * {@link #readSnapshotFromFile()} reads the file directly into a
+  * snapshot.
+  * @return configuration settings map
+  * @throws ConfigurationException if there was an error reading the
+  * settings
+  */
+ protected Properties readConfigurationFromFile()
+ 	throws ConfigurationException
+ {
+  Properties defaults = SharedDefaults.get(forClass, defaultsResource);
+  Properties config = new Properties(defaults);
+  File configFile = this.configFile;
+  if (null != configFile)
+  {
+   ConfigurationSnapshot snapshot = PropertiesParser.parse(configFile, charset, new Properties());
+   for (String key : snapshot.keys())
+    config.setProperty(key, snapshot.get(key));
+  }
+  return config;
  }
  
  public File getConfigFile()
@@ -283,13 +926,146 @@ public class Configuration
  }
 
  /**
-  * This operation resets the config cache, if any.
+  * This operation resets the config cache, if any. If
+  * {@link #isReloadingEnabled() reloading is enabled}, this object
+  * starts watching the new file instead of the old one, or stops
+  * watching if the argument is <code>null</code>.
   * @see #isCachingEnabled()
   */
- public void setConfigFile(File configFile)
+ public synchronized void setConfigFile(File configFile)
  {
   this.configCache = null;
   this.configFile = configFile;
+  if (isReloadingEnabled())
+  {
+   watcher.close();
+   watcher = null;
+   if (null != configFile)
+   {
+    watcher = new Watcher(configFile);
+    watcher.start();
+   }
+  }
+  reloadedSnapshot.set(null);
+ }
+
+ /**
+  * Returns the character encoding of the configuration file. The default
+  * is the platform's {@link Charset#defaultCharset() default charset},
+  * which matches the behavior of earlier versions.
+  */
+ public Charset getCharset()
+ {
+  return charset;
+ }
+
+ /**
+  * Changes the character encoding of the configuration file. This
+  * operation resets the configuration cache, if any.
+  * @param charset the encoding of the file, must not be <code>null</code>
+  * @see #isCachingEnabled()
+  */
+ public void setCharset(Charset charset)
+ {
+  if (null == charset)
+   throw new NullPointerException("Charset must not be null");
+  this.configCache = null;
+  this.charset = charset;
+  reloadedSnapshot.set(null);
+ }
+
+ /**
+  * Returns the chain of sources that this object reads its settings
+  * from, if any.
+  * @return the list of sources, lowest precedence first, or
+  * <code>null</code> if this object reads its
+  * {@link #getConfigFile() configuration file} and
+  * {@link #getDefaultsResource() defaults}
+  * @see #setSources(List)
+  */
+ public List<ConfigurationSource> getSources()
+ {
+  SourceChain sources = this.sources;
+  return null == sources ? null : sources.getSources();
+ }
+
+ /**
+  * Makes this object read its settings from a chain of layered sources
+  * instead of its {@link #getConfigFile() configuration file} and
+  * {@link #getDefaultsResource() defaults}. Settings from later sources
+  * override those from earlier ones. The layers are merged into one
+  * snapshot when loaded, so lookups cost the same regardless of the
+  * number of layers. When this object loads settings again, it re-reads
+  * only the sources whose {@link ConfigurationSource#getVersion() versions}
+  * have changed. Note that the {@link CachePolicy#validateOnStat()
+  * validate-on-stat cache policy} and {@link #isReloadingEnabled() reloading}
+  * only watch the configuration file, which may or may not belong to
+  * the chain. This operation resets the configuration cache, if any.
+  * @param sources the sources to read, lowest precedence first, or
+  * <code>null</code> to read the configuration file and defaults
+  * @see #isCachingEnabled()
+  */
+ public void setSources(List<? extends ConfigurationSource> sources)
+ {
+  this.configCache = null;
+  this.sources = null == sources ? null : new SourceChain(sources);
+  reloadedSnapshot.set(null);
+ }
+
+ /**
+  * Returns the location of the compiled image of the configuration file,
+  * if any.
+  * @see #setImageFile(File)
+  */
+ public File getImageFile()
+ {
+  return imageFile;
+ }
+
+ /**
+  * Makes this object map the settings from a binary image
+  * {@link ConfigurationCompiler compiled} from its configuration file
+  * instead of parsing that file. The file is parsed anyway if the image
+  * does not exist, is corrupt, or is out of date because the file, its
+  * {@link #getCharset() charset} or its defaults have changed since the
+  * image was compiled. This operation resets the configuration cache, if any.
+  * @param imageFile the location of the image or <code>null</code>
+  * to always parse the configuration file
+  * @see #isCachingEnabled()
+  */
+ public void setImageFile(File imageFile)
+ {
+  this.configCache = null;
+  this.imageFile = imageFile;
+  reloadedSnapshot.set(null);
+ }
+
+ /**
+  * Tells whether this object indexes its configuration file instead of
+  * parsing it entirely. In lazy mode, the values of settings are decoded
+  * when first looked up and a bounded number of them is kept in memory.
+  * This reduces the cost of reading large files of which an application
+  * uses few settings. Lazy mode applies to files in UTF-8, ISO-8859-1
+  * and US-ASCII charsets, files in other charsets are always parsed
+  * entirely. Unlike regular parsing, lazy mode does not report malformed
+  * byte sequences in values. The default is <code>false</code>.
+  * @see #getCharset()
+  */
+ public boolean isLazyLoading()
+ {
+  return lazyLoading;
+ }
+
+ /**
+  * Turns {@link #isLazyLoading() lazy mode} on or off. This operation
+  * resets the configuration cache, if any.
+  * @see #isCachingEnabled()
+  */
+ public void setLazyLoading(boolean lazyLoading)
+ {
+  this.configCache = null;
+  this.lazyLoading = lazyLoading;
+  reloadedSnapshot.set(null);
  }
 
  /**
@@ -318,11 +1094,15 @@ public class Configuration
  {
   this.configCache = null;
   this.defaultsResource = defaultsResource;
+  reloadedSnapshot.set(null);
  }
 
  /**
   * Tells whether this object caches properties that it reads.
-  * The default is <code>true</code>.
+  * The default is <code>true</code>. Unless
+  * {@link #isReloadingEnabled() reloading is enabled}, the
+  * {@link #getCachePolicy() cache policy} determines how long
+  * the cached properties are kept.
   */
  public boolean isCachingEnabled()
  {
@@ -337,15 +1117,367 @@ public class Configuration
  {
   this.configCache = null;
   this.cachingEnabled = cachingEnabled;
+  reloadedSnapshot.set(null);
+ }
+
+ /**
+  * Returns the policy that determines how long this object keeps
+  * cached properties and collects the cache's statistics.
+  * The default is a {@link CachePolicy#soft() soft} policy. 
+  * @see #isCachingEnabled()
+  */
+ public CachePolicy getCachePolicy()
+ {
+  return cachePolicy;
+ }
+
+ /**
+  * Changes the policy that determines how long this object keeps
+  * cached properties. This operation resets the config cache, if any.
+  * @param cachePolicy the new policy, must not be <code>null</code>
+  * @see #getCachePolicy()
+  */
+ public void setCachePolicy(CachePolicy cachePolicy)
+ {
+  if (null == cachePolicy)
+   throw new NullPointerException("Cache policy must not be null");
+  this.configCache = null;
+  this.cachePolicy = cachePolicy;
  }
  
- private Reference<Properties> configCache;
- private File configFile;
+ private volatile CachePolicy.Entry<Snapshot> configCache;
+ private volatile CachePolicy cachePolicy = CachePolicy.soft();
+ private final Object cacheLock = new Object();
+ private final AtomicReference<Snapshot> reloadedSnapshot = new AtomicReference<Snapshot>();
+ private volatile Watcher watcher;
+ private volatile File configFile;
  private Class<?> forClass;
- private String defaultsResource = DEFAULT_DEFAULTS_RESOURCE;
- private boolean cachingEnabled = true;
+ private volatile String defaultsResource = DEFAULT_DEFAULTS_RESOURCE;
+ private volatile boolean cachingEnabled = true;
+ private volatile Charset charset = Charset.defaultCharset();
+ private volatile boolean lazyLoading;
+ private volatile File imageFile;
+ private volatile SourceChain sources;
+ private volatile Subscription[] subscriptions = new Subscription[0];
+ /**
+  * The settings that listeners have been notified about, or
+  * <code>null</code> if there are no listeners.
+  */
+ private final AtomicReference<ConfigurationSnapshot> lastPublished
+ 	= new AtomicReference<ConfigurationSnapshot>();
+ private volatile Executor listenerExecutor = DEFAULT_LISTENER_EXECUTOR;
+
+ private static final Executor DEFAULT_LISTENER_EXECUTOR
+ 	= Executors.newSingleThreadExecutor((Runnable task) -> {
+ 	 Thread thread = new Thread(task, "proper2 listener notifier");
+ 	 thread.setDaemon(true);
+ 	 return thread;
+ 	});
+
+ private static final class Subscription
+ {
+  Subscription(String key, boolean prefix, ConfigurationListener listener)
+  {
+   if (null == key || null == listener)
+    throw new NullPointerException();
+   this.key = key;
+   this.prefix = prefix;
+   this.listener = listener;
+  }
+
+  final String key;
+  final boolean prefix;
+  final ConfigurationListener listener;
+ }
  private Log log;
- @SuppressWarnings("unchecked")
- private Map<Class<? extends AbstractSetting>, AbstractSetting> settings
-	= new HashMap<Class<? extends AbstractSetting>, AbstractSetting>(); 
+ private final ConcurrentMap<Class<?>, Supplier<?>> factories
+ 	= new ConcurrentHashMap<Class<?>, Supplier<?>>();
+
+ /**
+  * Marks the classes of {@link AbstractSetting#isTransient() transient}
+  * handlers in handler registries, so that their instances are created
+  * without placeholders.
+  */
+ private static final Object TRANSIENT = new Object();
+
+ /**
+  * Handler factories that call the default constructors of
+  * handler classes through {@link MethodHandle method handles}.
+  * Unlike {@link java.lang.invoke.LambdaMetafactory generated lambdas},
+  * method handles do not require handler classes to be visible to
+  * the class loader of this library.
+  */
+ private static final ClassValue<Supplier<?>> CONSTRUCTORS = new ClassValue<Supplier<?>>() {
+  @Override
+  protected Supplier<?> computeValue(final Class<?> clazz)
+  {
+   final MethodHandle constructor;
+   try
+   {
+    constructor = MethodHandles.publicLookup()
+      .findConstructor(clazz, MethodType.methodType(void.class))
+      .asType(MethodType.methodType(Object.class));
+   }
+   catch (final ReflectiveOperationException e)
+   {
+    return () -> {
+     throw new IllegalArgumentException(
+       "Could not create a setting handler for " + clazz, e);
+    };
+   }
+   return () -> {
+    try
+    {
+     return constructor.invokeExact();
+    }
+    catch (Error e)
+    {
+     throw e;
+    }
+    catch (Throwable e)
+    {
+     throw new IllegalArgumentException(
+       "Could not create a setting handler for " + clazz, e);
+    }
+   };
+  }
+ };
+
+ /**
+  * Maps handler classes to either their cached instances,
+  * {@link PendingSetting placeholders} of instances being loaded, or the
+  * {@link #TRANSIENT} marker for classes of transient handlers.
+  * This registry holds handlers loaded from settings that
+  * do not belong to a cached {@link Snapshot}.
+  */
+ private ConcurrentMap<Class<?>, Object> settings
+	= new ConcurrentHashMap<Class<?>, Object>();
+
+ /**
+  * Tells whether a configuration class overrides
+  * {@link #readConfigurationFromFile()}.
+  */
+ private static final ClassValue<Boolean> READS_PROPERTIES = new ClassValue<Boolean>() {
+  @Override
+  protected Boolean computeValue(Class<?> type)
+  {
+   for (Class<?> at = type; Configuration.class != at; at = at.getSuperclass())
+    try
+    {
+     at.getDeclaredMethod("readConfigurationFromFile");
+     return true;
+    }
+    catch (NoSuchMethodException inherited)
+    {
+    }
+   return false;
+  }
+ };
+
+ /**
+  * Configuration settings read at once along with the handlers
+  * loaded from them.
+  */
+ private static final class Snapshot
+ {
+  Snapshot(ConfigurationSnapshot values)
+  {
+   this.values = values;
+  }
+
+  /**
+   * Returns the registry of handlers loaded from the settings under
+   * a prefix.
+   */
+  ConcurrentMap<Class<?>, Object> settings(String prefix)
+  {
+   if (prefix.isEmpty())
+    return settings;
+   ConcurrentMap<Class<?>, Object> registry = scopes.get(prefix);
+   if (null == registry)
+    registry = scopes.computeIfAbsent(prefix,
+      (String key) -> new ConcurrentHashMap<Class<?>, Object>());
+   return registry;
+  }
+
+  final ConfigurationSnapshot values;
+  final ConcurrentMap<Class<?>, Object> settings
+	= new ConcurrentHashMap<Class<?>, Object>();
+  private final ConcurrentMap<String, ConcurrentMap<Class<?>, Object>> scopes
+	= new ConcurrentHashMap<String, ConcurrentMap<Class<?>, Object>>();
+ }
+
+ /**
+  * Stands in for a setting handler while the thread that registered
+  * this placeholder creates and loads it, so that concurrent lookups
+  * of the same class wait for that handler instead of creating
+  * duplicates.
+  */
+ private final class PendingSetting
+ {
+  PendingSetting(ConcurrentMap<Class<?>, Object> settings)
+  {
+   this.settings = settings;
+  }
+
+  /**
+   * Creates and loads the handler that this placeholder stands for.
+   * @param source a {@link Properties} or {@link ConfigurationSnapshot}
+   * object to load the handler from
+   */
+  <D extends AbstractSetting<D,?>> D load(Class<D> clazz, Object source)
+   throws ConfigurationException
+  {
+   try
+   {
+    D setting = newSetting(clazz);
+    loadSetting(setting, source);
+    if (setting.isTransient())
+     settings.replace(clazz, this, TRANSIENT);
+    else
+    {
+     result = setting;
+     settings.replace(clazz, this, setting);
+    }
+    return setting;
+   }
+   finally
+   {
+    if (null == result)
+     settings.remove(clazz, this);
+    done.countDown();
+   }
+  }
+
+  <D> D await(Class<D> clazz)
+  {
+   boolean interrupted = false;
+   for (;;)
+    try
+    {
+     done.await();
+     break;
+    }
+    catch (InterruptedException e)
+    {
+     interrupted = true;
+    }
+   if (interrupted)
+    Thread.currentThread().interrupt();
+   return null == result ? null : clazz.cast(result);
+  }
+
+  private final ConcurrentMap<Class<?>, Object> settings;
+  private final CountDownLatch done = new CountDownLatch(1);
+  private volatile Object result;
+ }
+
+ /**
+  * Reloads the configuration on a daemon thread when the
+  * configuration file changes.
+  */
+ private final class Watcher extends Thread
+ {
+  Watcher(File file) throws ConfigurationException
+  {
+   super("Configuration watcher for " + file);
+   setDaemon(true);
+   this.file = file;
+   Path path = file.getAbsoluteFile().toPath();
+   this.fileName = path.getFileName();
+   try
+   {
+    this.service = path.getFileSystem().newWatchService();
+    path.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+      StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+   }
+   catch (IOException ioerr)
+   {
+    close();
+    throw new ConfigurationException(
+      "Could not watch configuration file " + file + " for changes", ioerr);
+   }
+  }
+
+  @Override
+  public void run()
+  {
+   try
+   {
+    for (;;)
+    {
+     WatchKey key = service.take();
+     boolean changed = false;
+     for (WatchEvent<?> event : key.pollEvents())
+      if (StandardWatchEventKinds.OVERFLOW == event.kind()
+        || fileName.equals(event.context()))
+       changed = true;
+     key.reset();
+     if (changed)
+      reload();
+    }
+   }
+   catch (ClosedWatchServiceException stopped)
+   {
+   }
+   catch (InterruptedException stopped)
+   {
+   }
+  }
+
+  void close()
+  {
+   if (null != service)
+    try { service.close(); }
+    catch (IOException fail)
+    {
+     log.warn("Could not stop watching the configuration file: " + fail.getMessage(), fail);
+    }
+  }
+
+  private void reload()
+  {
+   Snapshot previous = reloadedSnapshot.get();
+   Snapshot snapshot;
+   try
+   {
+    // the change may have kept the file's modification time and size
+    SharedSnapshots.invalidate(file);
+    snapshot = new Snapshot(readSnapshotFromFile());
+    if (null != previous)
+     for (Object entry : previous.settings.values())
+      if (entry instanceof AbstractSetting)
+       reload((AbstractSetting<?,?>)entry, snapshot);
+   }
+   catch (RuntimeException failure)
+   {
+    log.error("Changes to " + configFile
+      + " have been ignored, since they could not be loaded", failure);
+    return;
+   }
+   synchronized (Configuration.this)
+   {
+    if (watcher != this)
+     return;
+    reloadedSnapshot.set(snapshot);
+   }
+   if (0 < subscriptions.length)
+    publish(snapshot.values);
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private void reload(AbstractSetting<?,?> previous, Snapshot snapshot)
+   throws ConfigurationException
+  {
+   Class clazz = previous.getClass();
+   AbstractSetting<?,?> setting = newSetting(clazz);
+   setting.load(snapshot.values);
+   setting.getValue();
+   snapshot.settings.put(clazz, setting);
+  }
+
+  private final File file;
+  private final Path fileName;
+  private WatchService service;
+ }
 }
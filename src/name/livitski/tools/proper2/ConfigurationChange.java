@@ -0,0 +1,82 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.util.Set;
+
+/**
+ * Describes a change of configuration settings that concerns a
+ * {@link ConfigurationListener listener}.
+ */
+public final class ConfigurationChange
+{
+ /**
+  * Returns the configuration that has changed.
+  */
+ public Configuration getConfiguration()
+ {
+  return configuration;
+ }
+
+ /**
+  * Returns the settings before the change.
+  */
+ public ConfigurationSnapshot getPrevious()
+ {
+  return previous;
+ }
+
+ /**
+  * Returns the settings after the change. Pass this snapshot to
+  * {@link Configuration#readSetting(Class, ConfigurationSnapshot)}
+  * to read the new values of settings.
+  */
+ public ConfigurationSnapshot getCurrent()
+ {
+  return current;
+ }
+
+ /**
+  * Returns the keys of settings that the listener subscribed to and that
+  * have been added, removed, or changed their values.
+  * @return an unmodifiable set of keys
+  */
+ public Set<String> getChangedKeys()
+ {
+  return changedKeys;
+ }
+
+ @Override
+ public String toString()
+ {
+  return "Change of settings " + changedKeys;
+ }
+
+ ConfigurationChange(Configuration configuration,
+   ConfigurationSnapshot previous, ConfigurationSnapshot current, Set<String> changedKeys)
+ {
+  this.configuration = configuration;
+  this.previous = previous;
+  this.current = current;
+  this.changedKeys = changedKeys;
+ }
+
+ private final Configuration configuration;
+ private final ConfigurationSnapshot previous;
+ private final ConfigurationSnapshot current;
+ private final Set<String> changedKeys;
+}
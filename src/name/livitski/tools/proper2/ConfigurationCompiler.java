@@ -0,0 +1,108 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Properties;
+
+/**
+ * Compiles configuration files into binary images that a
+ * {@link Configuration} can map into memory instead of parsing the files.
+ * Run this class at build or deployment time with the following arguments:
+ * <pre>
+ * [-d <i>defaults-file</i>] [-c <i>charset</i>] <i>config-file</i> <i>image-file</i>
+ * </pre>
+ * where <i>defaults-file</i> is a copy of the
+ * {@link Configuration#setDefaultsResource(String) defaults resource},
+ * if any, and <i>charset</i> is the
+ * {@link Configuration#setCharset(java.nio.charset.Charset) encoding}
+ * of the configuration file, which defaults to the platform's charset.
+ * An image is only used while the configuration file, its charset and
+ * defaults remain the same as when the image was compiled.
+ * @see Configuration#setImageFile(File)
+ */
+public final class ConfigurationCompiler
+{
+ /**
+  * Compiles a configuration file into an image.
+  * @param source the configuration file
+  * @param charset the encoding of <code>source</code>
+  * @param defaults the default settings, or an empty map
+  * if there are none
+  * @param image the file to write the image to
+  * @throws ConfigurationException if the configuration could not be
+  * read or the image could not be written
+  */
+ public static void compile(File source, Charset charset, Properties defaults, File image)
+   throws ConfigurationException
+ {
+  CompiledImage.compile(source, charset, defaults, image);
+ }
+
+ public static void main(String[] args)
+ {
+  File defaultsFile = null;
+  Charset charset = Charset.defaultCharset();
+  int at = 0;
+  try
+  {
+   for (; at < args.length - 2; at += 2)
+    if ("-d".equals(args[at]))
+     defaultsFile = new File(args[at + 1]);
+    else if ("-c".equals(args[at]))
+     charset = Charset.forName(args[at + 1]);
+    else
+     break;
+  }
+  catch (IllegalArgumentException badCharset)
+  {
+   System.err.println("Unsupported charset: " + args[at + 1]);
+   System.exit(2);
+  }
+  if (args.length - at != 2)
+  {
+   System.err.println("Usage: " + ConfigurationCompiler.class.getName()
+     + " [-d defaults-file] [-c charset] config-file image-file");
+   System.exit(2);
+  }
+  try
+  {
+   Properties defaults = new Properties();
+   if (null != defaultsFile)
+    // decode defaults the same way as the defaults resources are decoded
+    try (Reader input = new InputStreamReader(new FileInputStream(defaultsFile)))
+    {
+     defaults.load(input);
+    }
+   compile(new File(args[at]), charset, defaults, new File(args[at + 1]));
+  }
+  catch (IOException | ConfigurationException failure)
+  {
+   System.err.println(failure.getMessage());
+   System.exit(1);
+  }
+ }
+
+ private ConfigurationCompiler()
+ {
+ }
+}
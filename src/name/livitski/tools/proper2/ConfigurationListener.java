@@ -0,0 +1,35 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+/**
+ * Receives notifications about changes to the settings of a
+ * {@link Configuration}.
+ * @see Configuration#addListener(String, ConfigurationListener)
+ * @see Configuration#addListener(Class, ConfigurationListener)
+ */
+public interface ConfigurationListener
+{
+ /**
+  * Called when settings that this listener subscribed to have changed.
+  * Listeners are called on the
+  * {@link Configuration#setListenerExecutor(java.util.concurrent.Executor) listener executor}
+  * of the configuration.
+  * @param change describes the changed settings
+  */
+ void configurationChanged(ConfigurationChange change);
+}
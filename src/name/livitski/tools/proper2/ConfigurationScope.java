@@ -0,0 +1,132 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+/**
+ * View of the settings in a {@link Configuration} whose keys start with
+ * a prefix. Handlers read through a scope find their settings by keys
+ * relative to the prefix, e.g. a handler of <code>pool.size</code> read
+ * through the scope of <code>db.primary</code> gets the value of
+ * <code>db.primary.pool.size</code>. Scopes are lightweight and read
+ * the same settings as their configuration, so they may be created
+ * as needed.
+ * @see Configuration#scope(String)
+ */
+public final class ConfigurationScope
+{
+ /**
+  * Returns the prefix of keys in this scope, including the trailing dot.
+  */
+ public String getPrefix()
+ {
+  return prefix;
+ }
+
+ /**
+  * Returns the configuration that this scope reads settings from.
+  */
+ public Configuration getConfiguration()
+ {
+  return configuration;
+ }
+
+ /**
+  * Returns a view of the settings in this scope whose keys start with
+  * a prefix relative to this scope.
+  * @param prefix the relative prefix, with or without a trailing dot
+  * @return the nested scope
+  */
+ public ConfigurationScope scope(String prefix)
+ {
+  return new ConfigurationScope(configuration, this.prefix + normalize(prefix));
+ }
+
+ /**
+  * Reads the settings in this scope from the configuration.
+  * @return the snapshot of settings under this scope's prefix, with
+  * keys relative to that prefix
+  * @throws ConfigurationException if there was an error reading the
+  * settings
+  * @see Configuration#readSnapshot()
+  */
+ public ConfigurationSnapshot readSnapshot()
+ 	throws ConfigurationException
+ {
+  return configuration.readSnapshot(prefix);
+ }
+
+ /**
+  * Reads a setting in this scope and converts it to the appropriate
+  * data type.
+  * @param <T> the data type of the values contained in this setting  
+  * @param <D> the class that defines the setting to be read
+  * @param clazz the class that defines the setting to be read
+  * @return the setting's value read
+  * @throws ConfigurationException if there was an error reading the
+  * settings or the setting read was invalid or, for a required setting,
+  * missing
+  * @see Configuration#readSetting(Class)
+  */
+ public <T, D extends AbstractSetting<D,T>> T readSetting(Class<D> clazz)
+   throws ConfigurationException
+ {
+  return findSetting(clazz).getValue();
+ }
+
+ /**
+  * Returns a {@link AbstractSetting setting container} populated
+  * with a value read from this scope. Handlers are cached separately
+  * for each prefix.
+  * @param <D> the class that defines the setting to be read
+  * @param clazz the class that defines the setting to be read
+  * @return the setting container of the requested class 
+  * @throws ConfigurationException if there was an error reading the
+  * settings or the setting read was invalid or, for a required setting,
+  * missing
+  * @see Configuration#findSetting(Class)
+  */
+ public <D extends AbstractSetting<D,?>> D findSetting(Class<D> clazz)
+   throws ConfigurationException
+ {
+  return configuration.findScopedSetting(clazz, prefix);
+ }
+
+ @Override
+ public String toString()
+ {
+  return "Scope '" + prefix + "' of " + configuration;
+ }
+
+ /**
+  * Appends a dot to a non-empty prefix that does not end with one.
+  */
+ static String normalize(String prefix)
+ {
+  if (prefix.isEmpty() || '.' == prefix.charAt(prefix.length() - 1))
+   return prefix;
+  return prefix + '.';
+ }
+
+ ConfigurationScope(Configuration configuration, String prefix)
+ {
+  this.configuration = configuration;
+  this.prefix = prefix;
+ }
+
+ private final Configuration configuration;
+ private final String prefix;
+}
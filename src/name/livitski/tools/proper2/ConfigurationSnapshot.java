@@ -0,0 +1,668 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Immutable set of configuration settings read at once. Unlike
+ * {@link Properties}, a snapshot has no chain of defaults: any
+ * defaults are merged into the snapshot when it is created, so that
+ * each lookup is a single probe that takes no locks. Snapshots
+ * may be safely shared among threads.
+ * @see Configuration#readSnapshot()
+ * @see AbstractSetting#load(ConfigurationSnapshot)
+ */
+public abstract class ConfigurationSnapshot
+{
+ /**
+  * Creates a snapshot of a properties map, including any defaults
+  * of that map. Only entries with string keys and values are copied.
+  * @param properties the map to copy
+  * @return the snapshot of <code>properties</code>
+  */
+ public static ConfigurationSnapshot of(Properties properties)
+ {
+  Set<String> names = properties.stringPropertyNames();
+  String[] keys = new String[names.size()];
+  String[] values = new String[keys.length];
+  int i = 0;
+  for (String name : names)
+  {
+   keys[i] = name;
+   values[i++] = properties.getProperty(name);
+  }
+  return new Table(keys, values, i);
+ }
+
+ /**
+  * Creates a snapshot of a map with string keys and values.
+  * @param map the map to copy, must not contain <code>null</code>
+  * keys or values
+  * @return the snapshot of <code>map</code>
+  */
+ public static ConfigurationSnapshot of(Map<String, String> map)
+ {
+  String[] keys = new String[map.size()];
+  String[] values = new String[keys.length];
+  int i = 0;
+  for (Map.Entry<String, String> entry : map.entrySet())
+  {
+   keys[i] = entry.getKey();
+   values[i++] = entry.getValue();
+  }
+  return new Table(keys, values, i);
+ }
+
+ /**
+  * Creates a snapshot of parallel arrays of keys and values. If a key
+  * occurs more than once, its last value is kept. The arrays are not
+  * retained.
+  */
+ static ConfigurationSnapshot of(String[] keys, String[] values, int count)
+ {
+  return new Table(keys, values, count);
+ }
+
+ /**
+  * Returns the value of a setting in this snapshot.
+  * @param key the key of the setting in the properties' file
+  * @return the setting's value or <code>null</code> if this snapshot
+  * does not contain it
+  */
+ public abstract String get(String key);
+
+ /**
+  * Returns the value of a setting in this snapshot by the slot of its
+  * key. A snapshot binds the slots of the keys it contains to its
+  * entries when it is created, so that this method reads arrays rather
+  * than hashing the key. Only keys registered after the snapshot has
+  * been created are looked up by name.
+  * @param slot the slot {@link Configuration#registerKey(String) registered}
+  * for the key of a setting
+  * @return the setting's value or <code>null</code> if this snapshot
+  * does not contain it
+  */
+ public final String get(int slot)
+ {
+  int[] entries = slotEntries;
+  if (slot < entries.length)
+  {
+   int entry = entries[slot];
+   return 0 > entry ? null : valueAt(entry);
+  }
+  return slot < boundSlots ? null : get(SettingKeys.keyOf(slot));
+ }
+
+ /**
+  * Returns the number of settings in this snapshot.
+  */
+ public abstract int size();
+
+ /**
+  * Returns the keys of all settings in this snapshot in no
+  * particular order.
+  */
+ public abstract Iterable<String> keys();
+
+ /**
+  * Returns the keys of settings in this snapshot that start with a
+  * prefix, in the lexicographic order. The keys are looked up in a
+  * sorted index, which is built on the first call, so that each call
+  * takes time proportional to the logarithm of this snapshot's size plus
+  * the number of matching keys.
+  * @param prefix the prefix of keys to return, or an empty string
+  * to return all keys
+  */
+ public Iterable<String> keysWithPrefix(final String prefix)
+ {
+  final String[] sorted = sortedKeys();
+  int low = 0, high = sorted.length;
+  while (low < high)
+  {
+   int middle = (low + high) >>> 1;
+   if (0 > sorted[middle].compareTo(prefix))
+    low = middle + 1;
+   else
+    high = middle;
+  }
+  final int from = low;
+  return new Iterable<String>() {
+   @Override
+   public Iterator<String> iterator()
+   {
+    return new Iterator<String>() {
+     @Override
+     public boolean hasNext()
+     {
+      return at < sorted.length && sorted[at].startsWith(prefix);
+     }
+
+     @Override
+     public String next()
+     {
+      if (!hasNext())
+       throw new NoSuchElementException();
+      return sorted[at++];
+     }
+
+     @Override
+     public void remove()
+     {
+      throw new UnsupportedOperationException();
+     }
+
+     private int at = from;
+    };
+   }
+  };
+ }
+
+ /**
+  * Returns a view of the settings in this snapshot whose keys start
+  * with a prefix. The view finds settings by their keys relative to
+  * the prefix, e.g. the setting <code>db.primary.pool.size</code>
+  * appears as <code>pool.size</code> in the view of
+  * <code>db.primary</code>. Views are created once per snapshot
+  * and prefix.
+  * @param prefix the prefix of keys in the view, with or without a
+  * trailing dot
+  * @return the view of settings under <code>prefix</code>
+  */
+ public ConfigurationSnapshot scope(String prefix)
+ {
+  if (prefix.isEmpty())
+   return this;
+  prefix = ConfigurationScope.normalize(prefix);
+  ConcurrentMap<String, ConfigurationSnapshot> scopes = this.scopes;
+  if (null == scopes)
+   synchronized (this)
+   {
+    scopes = this.scopes;
+    if (null == scopes)
+     this.scopes = scopes = new ConcurrentHashMap<String, ConfigurationSnapshot>();
+   }
+  ConfigurationSnapshot scope = scopes.get(prefix);
+  if (null == scope)
+   scope = scopes.computeIfAbsent(prefix, (String key) -> new Scope(this, key));
+  return scope;
+ }
+
+ /**
+  * Returns the contents of this snapshot as a read-only
+  * {@link Properties} object without defaults. The object is created on
+  * the first call and returned by subsequent calls. Its methods that
+  * would modify it throw an {@link UnsupportedOperationException}, and
+  * its {@link Properties#clone() clone} is an ordinary modifiable copy.
+  */
+ public Properties toProperties()
+ {
+  Properties properties = this.properties;
+  if (null == properties)
+   this.properties = properties = new ReadOnlyProperties(this);
+  return properties;
+ }
+
+ /**
+  * Tells whether a {@link Properties} object has been
+  * {@link #toProperties() created from} this snapshot.
+  */
+ boolean isCopiedTo(Properties properties)
+ {
+  return null != properties && this.properties == properties;
+ }
+
+ ConfigurationSnapshot()
+ {
+ }
+
+ /**
+  * Finds the entry that holds the value of a key in this snapshot.
+  * @return the entry's index for {@link #valueAt(int)}, or a negative
+  * number if this snapshot does not contain <code>key</code>
+  */
+ abstract int entryOf(String key);
+
+ /**
+  * Returns the value held by an entry of this snapshot.
+  * @param entry the index returned by {@link #entryOf(String)}
+  */
+ abstract String valueAt(int entry);
+
+ /**
+  * Binds the slots of registered keys in this snapshot to their entries.
+  * Subclasses call this method at the end of their constructors, so that
+  * the keys are looked up by the thread that reads the settings rather
+  * than by handlers. No values are decoded.
+  */
+ final void bindSlots()
+ {
+  int bound = SettingKeys.count();
+  int[] entries = NO_ENTRIES;
+  for (String key : keys())
+  {
+   int slot = SettingKeys.slotOf(key);
+   if (0 > slot || bound <= slot)
+    continue;
+   if (slot >= entries.length)
+   {
+    int length = entries.length;
+    entries = Arrays.copyOf(entries, Math.min(bound, Math.max(slot + 1, 2 * length)));
+    Arrays.fill(entries, length, entries.length, -1);
+   }
+   entries[slot] = entryOf(key);
+  }
+  boundSlots = bound;
+  slotEntries = entries;
+ }
+
+ private String[] sortedKeys()
+ {
+  String[] sorted = sortedKeys;
+  if (null == sorted)
+  {
+   List<String> keys = new ArrayList<String>(size());
+   for (String key : keys())
+    keys.add(key);
+   sorted = keys.toArray(new String[keys.size()]);
+   Arrays.sort(sorted);
+   // racing threads build equal arrays
+   sortedKeys = sorted;
+  }
+  return sorted;
+ }
+
+ private static final int[] NO_ENTRIES = new int[0];
+
+ /**
+  * The entries of keys in this snapshot indexed by the slots of those
+  * keys, or <code>-1</code> for registered keys it does not contain.
+  * Slots above this array's end and below {@link #boundSlots} belong to
+  * keys that this snapshot does not contain either.
+  */
+ private volatile int[] slotEntries = NO_ENTRIES;
+ /**
+  * The number of slots allocated when this snapshot was bound, which
+  * is written before {@link #slotEntries}.
+  */
+ private int boundSlots;
+ private volatile Properties properties;
+ private volatile String[] sortedKeys;
+ private volatile ConcurrentMap<String, ConfigurationSnapshot> scopes;
+
+ /**
+  * Properties that cannot be modified once copied from a snapshot,
+  * so that they may be shared by all readers of that snapshot.
+  */
+ @SuppressWarnings("serial")
+ private static final class ReadOnlyProperties extends Properties
+ {
+  ReadOnlyProperties(ConfigurationSnapshot snapshot)
+  {
+   for (String key : snapshot.keys())
+    super.put(key, snapshot.get(key));
+   sealed = true;
+  }
+
+  @Override
+  public synchronized Object put(Object key, Object value)
+  {
+   if (sealed)
+    throw readOnly();
+   return super.put(key, value);
+  }
+
+  @Override
+  public synchronized Object remove(Object key)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized boolean remove(Object key, Object value)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized void putAll(Map<?, ?> map)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized Object putIfAbsent(Object key, Object value)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized Object replace(Object key, Object value)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized boolean replace(Object key, Object oldValue, Object newValue)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized void replaceAll(BiFunction<? super Object, ? super Object, ?> function)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized Object compute(Object key,
+    BiFunction<? super Object, ? super Object, ?> function)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized Object computeIfAbsent(Object key,
+    Function<? super Object, ?> function)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized Object computeIfPresent(Object key,
+    BiFunction<? super Object, ? super Object, ?> function)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized Object merge(Object key, Object value,
+    BiFunction<? super Object, ? super Object, ?> function)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized void clear()
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized void load(Reader reader)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized void load(InputStream stream)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public synchronized void loadFromXML(InputStream stream)
+  {
+   throw readOnly();
+  }
+
+  @Override
+  public Set<Object> keySet()
+  {
+   return Collections.unmodifiableSet(super.keySet());
+  }
+
+  /**
+   * Returns a view whose entries reject {@link Map.Entry#setValue(Object)}
+   * along with all other changes.
+   */
+  @Override
+  public Set<Map.Entry<Object, Object>> entrySet()
+  {
+   final Set<Map.Entry<Object, Object>> entries = super.entrySet();
+   // an unmodifiable map wraps its entries, an unmodifiable set does not
+   return Collections.unmodifiableMap(new AbstractMap<Object, Object>() {
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet()
+    {
+     return entries;
+    }
+   }).entrySet();
+  }
+
+  @Override
+  public Collection<Object> values()
+  {
+   return Collections.unmodifiableCollection(super.values());
+  }
+
+  /**
+   * Returns a modifiable copy of these properties.
+   */
+  @Override
+  public synchronized Object clone()
+  {
+   Properties copy = new Properties();
+   for (Map.Entry<Object, Object> entry : super.entrySet())
+    copy.put(entry.getKey(), entry.getValue());
+   return copy;
+  }
+
+  private static UnsupportedOperationException readOnly()
+  {
+   return new UnsupportedOperationException(
+     "Settings read from a configuration cannot be modified, clone them first");
+  }
+
+  private final boolean sealed;
+ }
+
+ /**
+  * View of the settings under a prefix of keys.
+  */
+ private static final class Scope extends ConfigurationSnapshot
+ {
+  Scope(ConfigurationSnapshot parent, String prefix)
+  {
+   this.parent = parent;
+   this.prefix = prefix;
+   bindSlots();
+  }
+
+  @Override
+  public String get(String key)
+  {
+   return parent.get(prefix + key);
+  }
+
+  @Override
+  int entryOf(String key)
+  {
+   return parent.entryOf(prefix + key);
+  }
+
+  @Override
+  String valueAt(int entry)
+  {
+   return parent.valueAt(entry);
+  }
+
+  @Override
+  public int size()
+  {
+   int size = 0;
+   for (Iterator<String> i = parent.keysWithPrefix(prefix).iterator(); i.hasNext(); i.next())
+    size++;
+   return size;
+  }
+
+  @Override
+  public Iterable<String> keys()
+  {
+   List<String> keys = new ArrayList<String>();
+   for (String key : parent.keysWithPrefix(prefix))
+    keys.add(key.substring(prefix.length()));
+   return keys;
+  }
+
+  @Override
+  public Iterable<String> keysWithPrefix(String prefix)
+  {
+   List<String> keys = new ArrayList<String>();
+   for (String key : parent.keysWithPrefix(this.prefix + prefix))
+    keys.add(key.substring(this.prefix.length()));
+   return keys;
+  }
+
+  @Override
+  public ConfigurationSnapshot scope(String prefix)
+  {
+   return prefix.isEmpty() ? this : parent.scope(this.prefix + prefix);
+  }
+
+  private final ConfigurationSnapshot parent;
+  private final String prefix;
+ }
+
+ /**
+  * Open-addressing hash table with interned keys, so that lookups
+  * of string literals usually succeed on a reference comparison.
+  */
+ private static final class Table extends ConfigurationSnapshot
+ {
+  Table(String[] keys, String[] values, int count)
+  {
+   int capacity = 2;
+   // keep the load factor at or below 0.5 to make probe sequences short
+   while (capacity < count * 2)
+    capacity <<= 1;
+   this.keys = new String[capacity];
+   this.values = new String[capacity];
+   this.mask = capacity - 1;
+   int size = 0;
+   for (int i = 0; i < count; i++)
+   {
+    int at = spread(keys[i].hashCode()) & mask;
+    while (null != this.keys[at] && !this.keys[at].equals(keys[i]))
+     at = (at + 1) & mask;
+    if (null == this.keys[at])
+    {
+     this.keys[at] = keys[i].intern();
+     size++;
+    }
+    this.values[at] = values[i];
+   }
+   this.size = size;
+   bindSlots();
+  }
+
+  @Override
+  public String get(String key)
+  {
+   int at = entryOf(key);
+   return 0 > at ? null : values[at];
+  }
+
+  @Override
+  int entryOf(String key)
+  {
+   String[] keys = this.keys;
+   for (int at = spread(key.hashCode()) & mask;; at = (at + 1) & mask)
+   {
+    String candidate = keys[at];
+    if (null == candidate)
+     return -1;
+    if (key == candidate || key.equals(candidate))
+     return at;
+   }
+  }
+
+  @Override
+  String valueAt(int entry)
+  {
+   return values[entry];
+  }
+
+  @Override
+  public int size()
+  {
+   return size;
+  }
+
+  @Override
+  public Iterable<String> keys()
+  {
+   return new Iterable<String>() {
+    @Override
+    public Iterator<String> iterator()
+    {
+     return new Iterator<String>() {
+      @Override
+      public boolean hasNext()
+      {
+       while (at < keys.length && null == keys[at])
+        at++;
+       return at < keys.length;
+      }
+
+      @Override
+      public String next()
+      {
+       if (!hasNext())
+        throw new NoSuchElementException();
+       return keys[at++];
+      }
+
+      @Override
+      public void remove()
+      {
+       throw new UnsupportedOperationException();
+      }
+
+      private int at;
+     };
+    }
+   };
+  }
+
+  private static int spread(int hash)
+  {
+   return hash ^ (hash >>> 16);
+  }
+
+  private final String[] keys;
+  private final String[] values;
+  private final int mask;
+  private final int size;
+ }
+}
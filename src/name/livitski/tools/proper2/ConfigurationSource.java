@@ -0,0 +1,225 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * A layer of settings in a {@link Configuration#setSources(java.util.List) chain}
+ * of configuration sources. Obtain common sources from the static
+ * factory methods of this class, or extend it to read settings from
+ * elsewhere. Sources must be thread-safe.
+ */
+public abstract class ConfigurationSource
+{
+ /**
+  * Returns a source of the {@link System#getProperties() system properties}.
+  */
+ public static ConfigurationSource systemProperties()
+ {
+  return new ConfigurationSource("system properties") {
+   @Override
+   public ConfigurationSnapshot read()
+   {
+    return ConfigurationSnapshot.of(System.getProperties());
+   }
+
+   @Override
+   public Object getVersion()
+   {
+    Properties properties = System.getProperties();
+    return Arrays.asList(properties.size(), properties.hashCode());
+   }
+  };
+ }
+
+ /**
+  * Returns a source of the {@link System#getenv() environment variables}.
+  * Since the environment of a process does not change, it is read once.
+  */
+ public static ConfigurationSource environment()
+ {
+  return new ConfigurationSource("environment") {
+   @Override
+   public ConfigurationSnapshot read()
+   {
+    return ConfigurationSnapshot.of(System.getenv());
+   }
+
+   @Override
+   public Object getVersion()
+   {
+    return Boolean.TRUE;
+   }
+  };
+ }
+
+ /**
+  * Returns a source that reads a properties file.
+  * @param file the file to read, which must exist
+  * @param charset the encoding of the file
+  */
+ public static ConfigurationSource file(File file, Charset charset)
+ {
+  return new FileSource(file, charset, false);
+ }
+
+ /**
+  * Returns a source that reads a properties file if it exists.
+  * @param file the file to read
+  * @param charset the encoding of the file
+  */
+ public static ConfigurationSource optionalFile(File file, Charset charset)
+ {
+  return new FileSource(file, charset, true);
+ }
+
+ /**
+  * Returns a source that reads all files with the <code>.properties</code>
+  * extension in a directory, e.g. <code>conf.d</code>. Files are read in
+  * the order of their names, so that settings in a file override those
+  * in files with lesser names. When the directory changes, the source
+  * re-reads only the files that have been added or changed.
+  * @param directory the directory to read
+  * @param charset the encoding of the files
+  */
+ public static ConfigurationSource directory(File directory, Charset charset)
+ {
+  return new DirectorySource(directory, charset);
+ }
+
+ /**
+  * Returns a source that reads a properties file, if it exists, named
+  * after the local host. That lets installations share a directory of
+  * configuration files with settings specific to each host.
+  * @param directory the directory of the file
+  * @param suffix the suffix appended to the host name to obtain
+  * the name of the file, e.g. <code>.properties</code>
+  * @param charset the encoding of the file
+  * @throws IllegalStateException if the name of the local host
+  * cannot be determined
+  */
+ public static ConfigurationSource perHost(File directory, String suffix, Charset charset)
+ {
+  String host;
+  try
+  {
+   host = InetAddress.getLocalHost().getHostName();
+  }
+  catch (UnknownHostException e)
+  {
+   throw new IllegalStateException("Could not determine the name of the local host", e);
+  }
+  return optionalFile(new File(directory, host + suffix), charset);
+ }
+
+ /**
+  * Returns a source that reads a properties resource once. Resources
+  * are parsed once per class loader and shared, as
+  * {@link Configuration#setDefaultsResource(String) defaults resources} are.
+  * @param forClass the class that resolves the resource's location
+  * @param resource the location of the resource relative to
+  * <code>forClass</code>
+  */
+ public static ConfigurationSource resource(final Class<?> forClass, final String resource)
+ {
+  return new ConfigurationSource("resource " + resource + " of " + forClass) {
+   @Override
+   public ConfigurationSnapshot read() throws ConfigurationException
+   {
+    return ConfigurationSnapshot.of(SharedDefaults.get(forClass, resource));
+   }
+
+   @Override
+   public Object getVersion()
+   {
+    return Boolean.TRUE;
+   }
+  };
+ }
+
+ /**
+  * Reads the settings of this source.
+  * @return the snapshot of settings in this layer
+  * @throws ConfigurationException if there was an error reading
+  * the settings
+  */
+ public abstract ConfigurationSnapshot read() throws ConfigurationException;
+
+ /**
+  * Returns a token that changes whenever the settings of this source
+  * may have changed. A configuration reads a source anew only if its
+  * token is not {@link Object#equals(Object) equal} to the token
+  * obtained before the last read. Calls to this method must be cheap.
+  * The default implementation returns <code>null</code>, which makes
+  * the configuration read this source whenever it loads settings.
+  */
+ public Object getVersion()
+ {
+  return null;
+ }
+
+ @Override
+ public String toString()
+ {
+  return description;
+ }
+
+ /**
+  * @param description the description of this source
+  */
+ protected ConfigurationSource(String description)
+ {
+  this.description = description;
+ }
+
+ private final String description;
+
+ private static final class FileSource extends ConfigurationSource
+ {
+  FileSource(File file, Charset charset, boolean optional)
+  {
+   super("file " + file);
+   this.file = file;
+   this.charset = charset;
+   this.optional = optional;
+  }
+
+  @Override
+  public ConfigurationSnapshot read() throws ConfigurationException
+  {
+   if (optional && !file.isFile())
+    return ConfigurationSnapshot.of(new Properties());
+   return PropertiesParser.parse(file, charset, new Properties());
+  }
+
+  @Override
+  public Object getVersion()
+  {
+   return Arrays.asList(file.lastModified(), file.length());
+  }
+
+  private final File file;
+  private final Charset charset;
+  private final boolean optional;
+ }
+}
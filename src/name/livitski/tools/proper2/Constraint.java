@@ -0,0 +1,186 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Restricts the values that a setting may take. Constraints are
+ * {@link AbstractSetting#addConstraint(Constraint) added to handlers}
+ * and checked against converted values once per load, so that a
+ * setting is parsed only once. Obtain common constraints from the
+ * static factory methods of this class, or extend it to impose custom
+ * restrictions. Constraints must be immutable and thread-safe.
+ * @param <T> the type of values this constraint applies to
+ */
+public abstract class Constraint<T>
+{
+ /**
+  * Returns a constraint that accepts values within a closed range.
+  * @param min the lowest accepted value or <code>null</code> if
+  * there is no lower bound
+  * @param max the highest accepted value or <code>null</code> if
+  * there is no upper bound
+  */
+ public static <T extends Comparable<? super T>> Constraint<T> range(final T min, final T max)
+ {
+  return new Constraint<T>("in range [" + (null == min ? "" : min)
+    + ", " + (null == max ? "" : max) + ']') {
+   @Override
+   public boolean accepts(T value)
+   {
+    return (null == min || 0 <= value.compareTo(min))
+      && (null == max || 0 >= value.compareTo(max));
+   }
+  };
+ }
+
+ /**
+  * Returns a constraint that accepts only the listed values.
+  * @param values the accepted values
+  */
+ @SafeVarargs
+ public static <T> Constraint<T> oneOf(T... values)
+ {
+  Set<T> set = new HashSet<T>(values.length * 2);
+  for (T value : values)
+   set.add(value);
+  final Set<T> accepted = Collections.unmodifiableSet(set);
+  return new Constraint<T>("one of " + accepted) {
+   @Override
+   public boolean accepts(T value)
+   {
+    return accepted.contains(value);
+   }
+  };
+ }
+
+ /**
+  * Returns a constraint that limits the length of text values.
+  * @param min the least accepted length
+  * @param max the greatest accepted length
+  */
+ public static Constraint<CharSequence> length(final int min, final int max)
+ {
+  return new Constraint<CharSequence>("of length " + min + " to " + max) {
+   @Override
+   public boolean accepts(CharSequence value)
+   {
+    int length = value.length();
+    return min <= length && max >= length;
+   }
+  };
+ }
+
+ /**
+  * Returns a constraint that accepts text values matching a
+  * {@link Pattern regular expression}.
+  * @param regex the expression that accepted values must match
+  */
+ public static Constraint<CharSequence> matches(String regex)
+ {
+  final Pattern pattern = Pattern.compile(regex);
+  return new Constraint<CharSequence>("matching " + regex) {
+   @Override
+   public boolean accepts(CharSequence value)
+   {
+    return pattern.matcher(value).matches();
+   }
+  };
+ }
+
+ /**
+  * Returns a constraint that accepts locations of existing files
+  * or directories.
+  */
+ public static Constraint<File> exists()
+ {
+  return EXISTS;
+ }
+
+ /**
+  * Returns a constraint that accepts locations of readable files
+  * or directories.
+  */
+ public static Constraint<File> readable()
+ {
+  return READABLE;
+ }
+
+ /**
+  * Returns a constraint that accepts locations of existing directories.
+  */
+ public static Constraint<File> directory()
+ {
+  return DIRECTORY;
+ }
+
+ /**
+  * Tells whether this constraint accepts a value.
+  * @param value a value of the setting, never <code>null</code>
+  */
+ public abstract boolean accepts(T value);
+
+ /**
+  * Returns the description of this constraint that completes the
+  * phrase "the value must be ...".
+  */
+ @Override
+ public String toString()
+ {
+  return description;
+ }
+
+ /**
+  * @param description the description of this constraint that
+  * completes the phrase "the value must be ..."
+  */
+ protected Constraint(String description)
+ {
+  this.description = description;
+ }
+
+ private static final Constraint<File> EXISTS = new Constraint<File>("an existing file") {
+  @Override
+  public boolean accepts(File value)
+  {
+   return value.exists();
+  }
+ };
+
+ private static final Constraint<File> READABLE = new Constraint<File>("a readable file") {
+  @Override
+  public boolean accepts(File value)
+  {
+   return value.canRead();
+  }
+ };
+
+ private static final Constraint<File> DIRECTORY = new Constraint<File>("a directory") {
+  @Override
+  public boolean accepts(File value)
+  {
+   return value.isDirectory();
+  }
+ };
+
+ private final String description;
+}
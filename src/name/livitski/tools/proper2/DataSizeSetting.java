@@ -0,0 +1,91 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+/**
+ * Parses and stores a setting with an amount of data, written as a
+ * number of bytes followed by an optional unit: <code>B</code>,
+ * decimal <code>KB</code>, <code>MB</code>, <code>GB</code>,
+ * <code>TB</code>, or binary <code>KiB</code>, <code>MiB</code>,
+ * <code>GiB</code>, <code>TiB</code>, such as <code>64KiB</code> or
+ * <code>2GB</code>. Units are matched ignoring case. Values are parsed
+ * when the setting is loaded and {@link #getBytes()} returns them
+ * without allocating objects.
+ * @param <D> the class that implements a specific setting
+ */
+public abstract class DataSizeSetting<D> extends AbstractSetting<D, Long>
+{
+ /**
+  * @param name the key of this setting in the configuration file
+  */
+ public DataSizeSetting(String name)
+ {
+  super(name);
+ }
+
+ @Override
+ public Class<Long> getType()
+ {
+  return Long.class;
+ }
+
+ /**
+  * Returns the value of this setting in bytes.
+  * @throws ConfigurationException if the setting's value is not
+  * a valid amount of data or the setting is not set
+  * @see #getValue()
+  */
+ public long getBytes() throws ConfigurationException
+ {
+  if (null == getValue())
+   throw new ConfigurationException(this + " is not set in the configuration");
+  return bytesValue;
+ }
+
+ /**
+  * Returns <code>null</code> if the setting is not set.
+  */
+ @Override
+ protected Long convert(String text) throws ConfigurationException
+ {
+  if (null == text)
+   return null;
+  try
+  {
+   long value = Quantities.parse(text, UNITS, FACTORS, 1L);
+   if (0 > value)
+    throw new NumberFormatException("Amount of data cannot be negative");
+   bytesValue = value;
+   return value;
+  }
+  catch (NumberFormatException e)
+  {
+   throw new ConfigurationException(
+     this + " encountered an invalid amount of data \"" + text + '"', e);
+  }
+ }
+
+ private static final String[] UNITS = {
+  "B", "KB", "MB", "GB", "TB", "KiB", "MiB", "GiB", "TiB"
+ };
+ private static final long[] FACTORS = {
+  1L, 1000L, 1000L * 1000, 1000L * 1000 * 1000, 1000L * 1000 * 1000 * 1000,
+  1L << 10, 1L << 20, 1L << 30, 1L << 40
+ };
+
+ private long bytesValue;
+}
@@ -25,7 +25,10 @@ import java.util.Date;
  * Parses and stores a setting with a date and/or time value.
  * Call {@link #setFormat(DateFormat)} to control the contents
  * of values this setting may take and how you expect them to be
- * encoded in the property text.
+ * encoded in the property text. Since date formats are not thread-safe,
+ * parsing is serialized on the format object. New code should prefer
+ * {@link InstantSetting} or {@link LocalDateTimeSetting}, which parse
+ * their values once per load into immutable objects.
  */
 public abstract class DateTimeSetting<D> extends AbstractSetting<D, Date>
 {
@@ -83,17 +86,34 @@ public abstract class DateTimeSetting<D> extends AbstractSetting<D, Date>
   return Date.class;
  }
 
+ /**
+  * Returns a copy of the date parsed from this setting, since
+  * {@link Date} objects are mutable and the parsed value is shared
+  * by all callers.
+  */
  @Override
  public Date getValue() throws ConfigurationException
  {
+  Date value = super.getValue();
+  return null == value ? null : (Date)value.clone();
+ }
+
+ @Override
+ protected Date convert(String text) throws ConfigurationException
+ {
+  DateFormat format = getFormat();
   try
   {
-   return getFormat().parse((String)valueString);
+   // date formats are not thread-safe
+   synchronized (format)
+   {
+    return format.parse(text);
+   }
   }
   catch (ParseException e)
   {
    throw new ConfigurationException(
-     this + " encountered an invalid date/time value \"" + valueString + '"', e);
+     this + " encountered an invalid date/time value \"" + text + '"', e);
   }
  }
 
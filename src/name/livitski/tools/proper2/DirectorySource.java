@@ -0,0 +1,177 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Reads settings from a directory of properties files, or fragments.
+ * Fragments are merged in the order of their names, so that settings
+ * from a fragment override those from fragments with lesser names.
+ * The source remembers the modification time, size and settings of each
+ * fragment, and re-parses only the fragments that have changed. The
+ * merged settings are then updated only for the keys of changed,
+ * added and removed fragments.
+ * @see ConfigurationSource#directory(File, Charset)
+ */
+final class DirectorySource extends ConfigurationSource
+{
+ DirectorySource(File directory, Charset charset)
+ {
+  super("directory " + directory);
+  this.directory = directory;
+  this.charset = charset;
+ }
+
+ @Override
+ public Object getVersion()
+ {
+  return scan();
+ }
+
+ @Override
+ public synchronized ConfigurationSnapshot read() throws ConfigurationException
+ {
+  List<Stamp> stamps = scan();
+  NavigableMap<String, Fragment> fragments = new TreeMap<String, Fragment>();
+  Set<String> affected = new HashSet<String>();
+  for (Stamp stamp : stamps)
+  {
+   Fragment fragment = this.fragments.get(stamp.name);
+   if (null == fragment || !stamp.equals(fragment.stamp))
+   {
+    if (null != fragment)
+     addKeys(affected, fragment.settings);
+    fragment = new Fragment(stamp,
+      PropertiesParser.parse(new File(directory, stamp.name), charset, NO_DEFAULTS));
+    addKeys(affected, fragment.settings);
+   }
+   fragments.put(stamp.name, fragment);
+  }
+  for (Fragment previous : this.fragments.values())
+   if (!fragments.containsKey(previous.stamp.name))
+    addKeys(affected, previous.settings);
+  this.fragments = fragments;
+  if (null != snapshot && affected.isEmpty())
+   return snapshot;
+  for (String key : affected)
+  {
+   String value = null;
+   for (Fragment fragment : fragments.descendingMap().values())
+    if (null != (value = fragment.settings.get(key)))
+     break;
+   if (null == value)
+    merged.remove(key);
+   else
+    merged.put(key, value);
+  }
+  return snapshot = ConfigurationSnapshot.of(merged);
+ }
+
+ /**
+  * Lists the fragments in the directory, sorted by name, along with
+  * their modification times and sizes.
+  */
+ private List<Stamp> scan()
+ {
+  String[] names = directory.list();
+  if (null == names)
+   return new ArrayList<Stamp>();
+  Arrays.sort(names);
+  List<Stamp> stamps = new ArrayList<Stamp>(names.length);
+  for (String name : names)
+  {
+   if (!name.endsWith(SUFFIX) || name.startsWith("."))
+    continue;
+   File file = new File(directory, name);
+   if (file.isFile())
+    stamps.add(new Stamp(name, file.lastModified(), file.length()));
+  }
+  return stamps;
+ }
+
+ private static void addKeys(Set<String> keys, ConfigurationSnapshot settings)
+ {
+  for (String key : settings.keys())
+   keys.add(key);
+ }
+
+ private static final class Stamp
+ {
+  Stamp(String name, long modified, long length)
+  {
+   this.name = name;
+   this.modified = modified;
+   this.length = length;
+  }
+
+  @Override
+  public int hashCode()
+  {
+   return name.hashCode() ^ Long.hashCode(modified) ^ Long.hashCode(length);
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+   if (!(obj instanceof Stamp))
+    return false;
+   Stamp other = (Stamp)obj;
+   return modified == other.modified && length == other.length
+     && name.equals(other.name);
+  }
+
+  final String name;
+  final long modified;
+  final long length;
+ }
+
+ private static final class Fragment
+ {
+  Fragment(Stamp stamp, ConfigurationSnapshot settings)
+  {
+   this.stamp = stamp;
+   this.settings = settings;
+  }
+
+  final Stamp stamp;
+  final ConfigurationSnapshot settings;
+ }
+
+ private static final String SUFFIX = ".properties";
+ private static final Properties NO_DEFAULTS = new Properties();
+
+ private final File directory;
+ private final Charset charset;
+ private NavigableMap<String, Fragment> fragments = new TreeMap<String, Fragment>();
+ /**
+  * The settings of all fragments merged, kept to be updated incrementally.
+  */
+ private final Map<String, String> merged = new HashMap<String, String>();
+ private ConfigurationSnapshot snapshot;
+}
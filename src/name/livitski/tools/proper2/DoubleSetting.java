@@ -35,17 +35,34 @@ public abstract class DoubleSetting<D> extends AbstractSetting<D, Double>
   return Double.class;
  }
 
+ /**
+  * Returns the value of this setting as a primitive <code>double</code>
+  * without boxing it.
+  * @throws ConfigurationException if the setting's value is not
+  * a floating-point number or the setting is not set
+  * @see #getValue()
+  */
+ public double getDouble() throws ConfigurationException
+ {
+  getValue();
+  return doubleValue;
+ }
+
  @Override
- public Double getValue() throws ConfigurationException
+ protected Double convert(String text) throws ConfigurationException
  {
   try
   {
-   return Double.valueOf((String)valueString);
+   double value = Double.parseDouble(text);
+   doubleValue = value;
+   return value;
   }
   catch (NumberFormatException e)
   {
    throw new ConfigurationException(
-     this + " encountered an invalid floating-point number \"" + valueString + '"', e);
+     this + " encountered an invalid floating-point number \"" + text + '"', e);
   }
  }
+
+ private double doubleValue;
 }
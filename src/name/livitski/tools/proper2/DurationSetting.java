@@ -0,0 +1,143 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses and stores a setting with a {@link Duration} value. Values
+ * are written either in the {@link Duration#parse(CharSequence) ISO-8601}
+ * format, such as <code>PT15M</code>, or as a number followed by a unit:
+ * <code>ns</code>, <code>us</code>, <code>ms</code>, <code>s</code>,
+ * <code>m</code>, <code>h</code> or <code>d</code>, such as
+ * <code>250ms</code> or <code>1.5h</code>. Numbers without a unit are
+ * accepted only if a {@link #setDefaultUnit(TimeUnit) default unit} is
+ * set. The value is also stored as a number of nanoseconds that
+ * {@link #getNanos()} returns without allocating objects.
+ * @param <D> the class that implements a specific setting
+ */
+public abstract class DurationSetting<D> extends TemporalSetting<D, Duration>
+{
+ /**
+  * @param name the key of this setting in the configuration file
+  */
+ public DurationSetting(String name)
+ {
+  this(name, null);
+ }
+
+ /**
+  * @param name the key of this setting in the configuration file
+  * @param defaultUnit the argument to pass to
+  * {@link #setDefaultUnit(TimeUnit)}
+  */
+ public DurationSetting(String name, TimeUnit defaultUnit)
+ {
+  super(name);
+  setDefaultUnit(defaultUnit);
+ }
+
+ @Override
+ public Class<Duration> getType()
+ {
+  return Duration.class;
+ }
+
+ /**
+  * Returns the value of this setting in nanoseconds.
+  * @throws ConfigurationException if the setting's value is not
+  * a valid duration or the setting is not set
+  * @see #getValue()
+  */
+ public long getNanos() throws ConfigurationException
+ {
+  if (null == getValue())
+   throw new ConfigurationException(this + " is not set in the configuration");
+  return nanosValue;
+ }
+
+ /**
+  * Returns the unit of durations written as bare numbers, or
+  * <code>null</code> if such durations are not accepted.
+  */
+ public TimeUnit getDefaultUnit()
+ {
+  return defaultUnit;
+ }
+
+ /**
+  * Lets this setting accept durations written as bare numbers, which
+  * helps migrate settings that used to be read as
+  * {@link LongSetting long integers}. Takes effect on the next load
+  * of this setting.
+  * @param defaultUnit the unit of such durations or <code>null</code>
+  * to require an explicit unit
+  */
+ public void setDefaultUnit(TimeUnit defaultUnit)
+ {
+  this.defaultUnit = defaultUnit;
+ }
+
+ @Override
+ protected Duration parse(String text)
+ {
+  long nanos;
+  try
+  {
+   if (isIsoFormat(text))
+    nanos = Duration.parse(text).toNanos();
+   else
+    nanos = Quantities.parse(text, UNITS, FACTORS,
+      null == defaultUnit ? 0 : defaultUnit.toNanos(1));
+  }
+  catch (ArithmeticException e)
+  {
+   throw new DateTimeParseException("Duration is too long", text, 0, e);
+  }
+  catch (NumberFormatException e)
+  {
+   throw new DateTimeParseException(e.getMessage(), text, 0, e);
+  }
+  nanosValue = nanos;
+  return Duration.ofNanos(nanos);
+ }
+
+ @Override
+ protected String describeValues()
+ {
+  return "duration";
+ }
+
+ private static boolean isIsoFormat(String text)
+ {
+  int at = 0;
+  while (at < text.length() && ('-' == text.charAt(at) || '+' == text.charAt(at)))
+   at++;
+  return at < text.length() && 'P' == Character.toUpperCase(text.charAt(at));
+ }
+
+ private static final String[] UNITS = { "ns", "us", "\u00b5s", "ms", "s", "m", "h", "d" };
+ private static final long[] FACTORS = {
+  1L, 1000L, 1000L, 1000000L, 1000000000L,
+  60L * 1000000000L, 3600L * 1000000000L, 86400L * 1000000000L
+ };
+
+ private TimeUnit defaultUnit;
+ private long nanosValue;
+}
@@ -18,9 +18,10 @@ package name.livitski.tools.proper2;
 
 /**
  * Parses and stores a setting with an enumerated value. This
- * parser assumes that enumerated constants have all-uppercase
- * names and converts the string to the upper case before looking
- * up the target constant.
+ * parser matches the names of enumerated constants ignoring case,
+ * independently of the default locale. The constants of each
+ * enumerated type are indexed once and the index is shared by all
+ * handlers of that type.
  * @param E the type that enumerates possible values of this setting
  */
 public abstract class EnumeratedSetting<D, E extends Enum<E>>
@@ -39,20 +40,29 @@ public abstract class EnumeratedSetting<D, E extends Enum<E>>
  }
 
  @Override
- public E getValue() throws ConfigurationException
+ protected E convert(String text) throws ConfigurationException
  {
-  if (null == valueString)
+  if (null == text)
    return null;
-  try
-  {
-   return Enum.valueOf(type, valueString.toUpperCase());
-  }
-  catch (IllegalArgumentException badValue)
-  {
+  @SuppressWarnings("unchecked")
+  E value = ((CaseFoldedTable<E>)CONSTANTS.get(type)).get(text);
+  if (null == value)
    throw new ConfigurationException(
-     "Unrecognized value of setting \"" + getName() + "\": " + valueString, badValue);
-  }
+     "Unrecognized value of setting \"" + getName() + "\": " + text);
+  return value;
  }
 
+ private static final ClassValue<CaseFoldedTable<?>> CONSTANTS = new ClassValue<CaseFoldedTable<?>>() {
+  @Override
+  protected CaseFoldedTable<?> computeValue(Class<?> type)
+  {
+   Enum<?>[] constants = (Enum<?>[])type.getEnumConstants();
+   String[] names = new String[constants.length];
+   for (int i = 0; i < constants.length; i++)
+    names[i] = constants[i].name();
+   return new CaseFoldedTable<Enum<?>>(names, constants);
+  }
+ };
+
  private Class<E> type;
 }
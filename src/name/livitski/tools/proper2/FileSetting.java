@@ -32,9 +32,9 @@ public abstract class FileSetting<D> extends AbstractSetting<D, File>
  }
 
  @Override
- public File getValue() throws ConfigurationException
+ protected File convert(String text) throws ConfigurationException
  {
-  return null == valueString ? null : new File(valueString);
+  return null == text ? null : new File(text);
  }
 
  public FileSetting(String name)
@@ -35,17 +35,34 @@ public abstract class FloatSetting<D> extends AbstractSetting<D, Float>
   return Float.class;
  }
 
+ /**
+  * Returns the value of this setting as a primitive <code>float</code>
+  * without boxing it.
+  * @throws ConfigurationException if the setting's value is not
+  * a floating-point number or the setting is not set
+  * @see #getValue()
+  */
+ public float getFloat() throws ConfigurationException
+ {
+  getValue();
+  return floatValue;
+ }
+
  @Override
- public Float getValue() throws ConfigurationException
+ protected Float convert(String text) throws ConfigurationException
  {
   try
   {
-   return Float.valueOf((String)valueString);
+   float value = Float.parseFloat(text);
+   floatValue = value;
+   return value;
   }
   catch (NumberFormatException e)
   {
    throw new ConfigurationException(
-     this + " encountered an invalid floating-point number \"" + valueString + '"', e);
+     this + " encountered an invalid floating-point number \"" + text + '"', e);
   }
  }
+
+ private float floatValue;
 }
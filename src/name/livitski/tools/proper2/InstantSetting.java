@@ -0,0 +1,90 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Parses and stores a setting with an {@link Instant} value.
+ * Unless {@link #setFormatter(DateTimeFormatter) told otherwise},
+ * expects values in the {@link DateTimeFormatter#ISO_INSTANT ISO-8601}
+ * format, such as <code>2014-12-03T10:15:30Z</code>.
+ * @param <D> the class that implements a specific setting
+ */
+public abstract class InstantSetting<D> extends TemporalSetting<D, Instant>
+{
+ /**
+  * @param name the key of this setting in the configuration file
+  */
+ public InstantSetting(String name)
+ {
+  this(name, DateTimeFormatter.ISO_INSTANT);
+ }
+
+ /**
+  * @param name the key of this setting in the configuration file
+  * @param formatter the argument to pass to
+  * {@link #setFormatter(DateTimeFormatter)}
+  */
+ public InstantSetting(String name, DateTimeFormatter formatter)
+ {
+  super(name);
+  setFormatter(formatter);
+ }
+
+ /**
+  * Returns the formatter that parses the text of this setting.
+  */
+ public DateTimeFormatter getFormatter()
+ {
+  return formatter;
+ }
+
+ /**
+  * Designates the formatter that parses the text of this setting.
+  * Formatters that do not resolve an offset or zone must have an
+  * {@link DateTimeFormatter#withZone(java.time.ZoneId) override zone}.
+  * Takes effect on the next load of this setting.
+  * @param formatter the formatter to use or <code>null</code> to
+  * use the {@link DateTimeFormatter#ISO_INSTANT ISO-8601 format}
+  */
+ public void setFormatter(DateTimeFormatter formatter)
+ {
+  this.formatter = null == formatter ? DateTimeFormatter.ISO_INSTANT : formatter;
+ }
+
+ @Override
+ public Class<Instant> getType()
+ {
+  return Instant.class;
+ }
+
+ @Override
+ protected Instant parse(String text)
+ {
+  return formatter.parse(text, Instant::from);
+ }
+
+ @Override
+ protected String describeValues()
+ {
+  return "instant";
+ }
+
+ private DateTimeFormatter formatter;
+}
@@ -36,17 +36,34 @@ public abstract class IntegerSetting<D> extends AbstractSetting<D, Integer>
   return Integer.class;
  }
 
+ /**
+  * Returns the value of this setting as a primitive <code>int</code>
+  * without boxing it.
+  * @throws ConfigurationException if the setting's value is not
+  * an integer or the setting is not set
+  * @see #getValue()
+  */
+ public int getInt() throws ConfigurationException
+ {
+  getValue();
+  return intValue;
+ }
+
  @Override
- public Integer getValue() throws ConfigurationException
+ protected Integer convert(String text) throws ConfigurationException
  {
   try
   {
-   return Integer.valueOf((String)valueString);
+   int value = Integer.parseInt(text);
+   intValue = value;
+   return value;
   }
   catch (NumberFormatException e)
   {
    throw new ConfigurationException(
-     this + " encountered an invalid integer \"" + valueString + '"', e);
+     this + " encountered an invalid integer \"" + text + '"', e);
   }
  }
+
+ private int intValue;
 }
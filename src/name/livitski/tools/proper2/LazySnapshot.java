@@ -0,0 +1,409 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Snapshot of a configuration file that decodes values on demand.
+ * When created, the snapshot scans the raw bytes of the file and builds
+ * an index of keys and the locations of their values, without decoding
+ * the values. Values are decoded when looked up and kept in a bounded
+ * cache. This saves both time and memory when an application reads few
+ * of the settings in a large file. Only files in charsets that encode
+ * the syntax characters of properties files as single bytes that cannot
+ * occur elsewhere, such as UTF-8 or ISO-8859-1, can be indexed.
+ * Malformed byte sequences in values are replaced rather than reported,
+ * since they are only decoded when looked up.
+ */
+final class LazySnapshot extends ConfigurationSnapshot
+{
+ /**
+  * Tells whether files in a charset can be indexed by this class.
+  */
+ static boolean supports(Charset charset)
+ {
+  return StandardCharsets.UTF_8.equals(charset)
+    || StandardCharsets.ISO_8859_1.equals(charset)
+    || StandardCharsets.US_ASCII.equals(charset);
+ }
+
+ /**
+  * Reads and indexes a configuration file.
+  * @param file the file to read
+  * @param charset the encoding of the file, which this class
+  * must {@link #supports(Charset) support}
+  * @param defaults the settings to return unless the file
+  * overrides them
+  * @throws ConfigurationException if the file could not be read
+  * or is malformed
+  */
+ static LazySnapshot index(File file, Charset charset, Properties defaults)
+   throws ConfigurationException
+ {
+  byte[] bytes;
+  try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+  {
+   long size = channel.size();
+   if (Integer.MAX_VALUE < size)
+    throw new ConfigurationException("Configuration file " + file + " is too large");
+   // the file is copied rather than mapped, since changes made to a
+   // mapped file in place may fault the reading threads
+   bytes = new byte[(int)size];
+   ByteBuffer buffer = ByteBuffer.wrap(bytes);
+   while (buffer.hasRemaining() && 0 <= channel.read(buffer));
+   if (buffer.hasRemaining())
+    bytes = Arrays.copyOf(bytes, buffer.position());
+  }
+  catch (IOException ioerr)
+  {
+   throw new ConfigurationException("Error reading configuration file " + file, ioerr);
+  }
+  return new LazySnapshot(file, charset, bytes, ConfigurationSnapshot.of(defaults));
+ }
+
+ @Override
+ public String get(String key)
+ {
+  int entry = entryOf(key);
+  return 0 > entry ? null : valueAt(entry);
+ }
+
+ /**
+  * Returns the index of a key in the table, or the index of a default
+  * setting offset by the table's capacity.
+  */
+ @Override
+ int entryOf(String key)
+ {
+  int entry = find(key);
+  if (0 <= entry)
+   return entry;
+  entry = defaults.entryOf(key);
+  return 0 > entry ? -1 : keys.length + entry;
+ }
+
+ @Override
+ String valueAt(int entry)
+ {
+  if (keys.length <= entry)
+   return defaults.valueAt(entry - keys.length);
+  int at = entry & (cache.length - 1);
+  Cached cached = cache[at];
+  if (null != cached && entry == cached.entry)
+   return cached.value;
+  String value = decode(starts[entry], ends[entry]);
+  // cached values are immutable and safe to publish without synchronization
+  cache[at] = new Cached(entry, value);
+  return value;
+ }
+
+ @Override
+ public int size()
+ {
+  return size;
+ }
+
+ @Override
+ public Iterable<String> keys()
+ {
+  List<String> keys = new ArrayList<String>(size);
+  for (String key : this.keys)
+   if (null != key)
+    keys.add(key);
+  for (String key : defaults.keys())
+   if (0 > find(key))
+    keys.add(key);
+  return keys;
+ }
+
+ private LazySnapshot(File file, Charset charset, byte[] bytes, ConfigurationSnapshot defaults)
+   throws ConfigurationException
+ {
+  this.file = file;
+  this.charset = charset;
+  this.bytes = bytes;
+  this.defaults = defaults;
+  int capacity = 64;
+  keys = new String[capacity];
+  starts = new int[capacity];
+  ends = new int[capacity];
+  int count = 0;
+  int end = bytes.length, pos = 0;
+  // skip the UTF-8 byte order mark that some editors write
+  if (3 <= end && (byte)0xEF == bytes[0] && (byte)0xBB == bytes[1] && (byte)0xBF == bytes[2])
+   pos = 3;
+  while (pos < end)
+  {
+   pos = skipWhitespace(pos);
+   if (pos >= end)
+    break;
+   byte b = bytes[pos];
+   if ('#' == b || '!' == b)
+   {
+    while (pos < end && !isLineEnd(bytes[pos]))
+     pos++;
+    continue;
+   }
+   if (isLineEnd(b))
+   {
+    pos++;
+    continue;
+   }
+   // a line that has nothing but a continuation starts no setting,
+   // unless the input ends right after it, as with Properties
+   if ('\\' == b && (pos + 1 == end || isLineEnd(bytes[pos + 1])))
+   {
+    if (pos + 2 >= end)
+     pos = end;
+    else
+    {
+     pos += '\r' == bytes[pos + 1] && '\n' == bytes[pos + 2] ? 3 : 2;
+     continue;
+    }
+   }
+   int keyStart = pos;
+   while (pos < end)
+   {
+    b = bytes[pos];
+    if ('=' == b || ':' == b || ' ' == b || '\t' == b || '\f' == b || isLineEnd(b))
+     break;
+    pos = '\\' == b ? skipEscape(pos) : pos + 1;
+   }
+   int keyEnd = pos;
+   pos = skipContinuedWhitespace(pos);
+   if (pos < end && ('=' == bytes[pos] || ':' == bytes[pos]))
+    pos = skipContinuedWhitespace(pos + 1);
+   int valueStart = pos;
+   while (pos < end && !isLineEnd(bytes[pos]))
+    pos = '\\' == bytes[pos] ? skipEscape(pos) : pos + 1;
+   if (2 * (count + 1) > capacity)
+    rehash(capacity *= 2);
+   if (add(strictDecode(keyStart, keyEnd), valueStart, pos))
+    count++;
+  }
+  int size = count;
+  for (String key : defaults.keys())
+   if (0 > find(key))
+    size++;
+  this.size = size;
+  this.cache = new Cached[Math.min(MAX_CACHE_SIZE, Integer.highestOneBit(Math.max(count, 1)) * 2)];
+  bindSlots();
+ }
+
+ /**
+  * Returns the position that follows an escape sequence, skipping the
+  * whitespace that starts a continuation line. Checks the digits of
+  * Unicode escapes, so that values can be decoded without errors.
+  */
+ private int skipEscape(int pos) throws ConfigurationException
+ {
+  int end = bytes.length;
+  if (++pos >= end)
+   return pos;
+  byte b = bytes[pos++];
+  if ('\r' == b || '\n' == b)
+  {
+   if ('\r' == b && pos < end && '\n' == bytes[pos])
+    pos++;
+   return skipWhitespace(pos);
+  }
+  if ('u' == b)
+   for (int i = 0; i < 4; i++, pos++)
+    if (pos >= end || 0 > Character.digit((char)(bytes[pos] & 0xFF), 16))
+     throw syntaxError(pos, "malformed \\uxxxx escape", null);
+  return pos;
+ }
+
+ private int skipWhitespace(int pos)
+ {
+  while (pos < bytes.length && (' ' == bytes[pos] || '\t' == bytes[pos] || '\f' == bytes[pos]))
+   pos++;
+  return pos;
+ }
+
+ /**
+  * Skips whitespace along with the line continuations in it.
+  */
+ private int skipContinuedWhitespace(int pos) throws ConfigurationException
+ {
+  for (pos = skipWhitespace(pos);
+    pos + 1 < bytes.length && '\\' == bytes[pos] && isLineEnd(bytes[pos + 1]);
+    pos = skipWhitespace(pos))
+   pos = skipEscape(pos);
+  return pos;
+ }
+
+ private static boolean isLineEnd(byte b)
+ {
+  return '\n' == b || '\r' == b;
+ }
+
+ private ConfigurationException syntaxError(int at, String problem, Throwable cause)
+ {
+  int line = 1, column = 1;
+  for (int i = 0; i < at; i++)
+  {
+   byte b = bytes[i];
+   if ('\n' == b || '\r' == b && (i + 1 == at || '\n' != bytes[i + 1]))
+   {
+    line++;
+    column = 1;
+   }
+   // count characters rather than bytes by skipping UTF-8 continuation bytes
+   else if ('\r' != b && (0x80 != (b & 0xC0) || !StandardCharsets.UTF_8.equals(charset)))
+    column++;
+  }
+  return new ConfigurationException("Syntax error in configuration file " + file
+    + " at line " + line + ", column " + column + ": " + problem, cause);
+ }
+
+ private String strictDecode(int start, int end) throws ConfigurationException
+ {
+  boolean plain = true;
+  for (int i = start; plain && i < end; i++)
+   plain = 0 <= bytes[i] && '\\' != bytes[i];
+  // keys are usually plain ASCII, which all supported charsets share
+  if (plain)
+   return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+  try
+  {
+   CharBuffer text = charset.newDecoder()
+     .onMalformedInput(CodingErrorAction.REPORT)
+     .onUnmappableCharacter(CodingErrorAction.REPORT)
+     .decode(ByteBuffer.wrap(bytes, start, end - start));
+   return PropertiesParser.unescape(Arrays.copyOf(text.array(), text.limit()));
+  }
+  catch (CharacterCodingException e)
+  {
+   throw syntaxError(start, "invalid " + charset.name() + " text", e);
+  }
+ }
+
+ private String decode(int start, int end)
+ {
+  try
+  {
+   return PropertiesParser.unescape(
+     new String(bytes, start, end - start, charset).toCharArray());
+  }
+  catch (ConfigurationException e)
+  {
+   // escapes have been checked by the constructor
+   throw new IllegalStateException(e);
+  }
+ }
+
+ private int find(String key)
+ {
+  int mask = keys.length - 1;
+  for (int at = spread(key.hashCode()) & mask;; at = (at + 1) & mask)
+  {
+   String candidate = keys[at];
+   if (null == candidate)
+    return -1;
+   if (key.equals(candidate))
+    return at;
+  }
+ }
+
+ /**
+  * Adds a key to the index or relocates the value of a key that is
+  * already there.
+  * @return whether the key has been added
+  */
+ private boolean add(String key, int start, int end)
+ {
+  int mask = keys.length - 1;
+  int at = spread(key.hashCode()) & mask;
+  while (null != keys[at] && !key.equals(keys[at]))
+   at = (at + 1) & mask;
+  boolean added = null == keys[at];
+  keys[at] = key;
+  starts[at] = start;
+  ends[at] = end;
+  return added;
+ }
+
+ private void rehash(int capacity)
+ {
+  String[] keys = this.keys;
+  int[] starts = this.starts, ends = this.ends;
+  this.keys = new String[capacity];
+  this.starts = new int[capacity];
+  this.ends = new int[capacity];
+  for (int i = 0; i < keys.length; i++)
+   if (null != keys[i])
+    add(keys[i], starts[i], ends[i]);
+ }
+
+ private static int spread(int hash)
+ {
+  return hash ^ (hash >>> 16);
+ }
+
+ /**
+  * A value decoded from the file along with its index entry.
+  */
+ private static final class Cached
+ {
+  Cached(int entry, String value)
+  {
+   this.entry = entry;
+   this.value = value;
+  }
+
+  final int entry;
+  final String value;
+ }
+
+ /**
+  * The greatest number of decoded values this snapshot keeps.
+  */
+ private static final int MAX_CACHE_SIZE = 1024;
+
+ private final File file;
+ private final Charset charset;
+ private final byte[] bytes;
+ private final ConfigurationSnapshot defaults;
+ private final int size;
+ /**
+  * Open-addressing table of keys that keeps the load factor at or
+  * below 0.5, with the offsets of the values in parallel arrays.
+  */
+ private String[] keys;
+ private int[] starts;
+ private int[] ends;
+ /**
+  * Direct-mapped cache of decoded values indexed by their entries in
+  * the table.
+  */
+ private final Cached[] cache;
+}
@@ -0,0 +1,434 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.RandomAccess;
+import java.util.function.Supplier;
+
+/**
+ * Parses a setting that lists values of the same type. The list is
+ * either written as a single delimited value, e.g.
+ * <code>ports = 8080, 8081</code>, or as indexed keys
+ * <code>ports.0</code>, <code>ports.1</code> and so on, numbered
+ * from zero without gaps. The delimited value takes precedence if
+ * both are present. Elements are converted by an element handler, such
+ * as an {@link IntegerSetting} or {@link URISetting}, which applies its
+ * constraints to each element. A setting made with a factory of element
+ * handlers converts each list with a new handler, so that lists of
+ * {@link #isTransient() transient} settings can be converted by several
+ * threads at once. The list is parsed once per load and
+ * returned as an immutable object. Lists of {@link Integer},
+ * {@link Long} and {@link Double} elements are stored in primitive
+ * arrays, which {@link #getInt(int)}, {@link #getLong(int)} and
+ * {@link #getDouble(int)} read without boxing.
+ * @param <D> the class that implements a specific setting
+ * @param <E> the type of elements of this setting's values
+ */
+public abstract class ListSetting<D, E> extends AbstractSetting<D, List<E>>
+{
+ /**
+  * @param name the key of this setting in the configuration file
+  * @param elements the factory of handlers that convert elements of
+  * the list, which must return a new handler on each call
+  */
+ public ListSetting(String name, Supplier<? extends AbstractSetting<?, E>> elements)
+ {
+  super(name);
+  this.elements = elements;
+  this.element = elements.get();
+ }
+
+ /**
+  * Lists created with this constructor are converted one at a time,
+  * since the element handler is reloaded with each element's text.
+  * @param name the key of this setting in the configuration file
+  * @param element the handler that converts elements of the list,
+  * which must not be used elsewhere
+  * @see #ListSetting(String, Supplier)
+  */
+ public ListSetting(String name, AbstractSetting<?, E> element)
+ {
+  super(name);
+  this.elements = null;
+  this.element = element;
+ }
+
+ @SuppressWarnings("unchecked")
+ @Override
+ public Class<List<E>> getType()
+ {
+  return (Class<List<E>>)(Class<?>)List.class;
+ }
+
+ /**
+  * Returns the handler that converts elements of the list, or the
+  * first handler made by the factory of element handlers.
+  */
+ public AbstractSetting<?, E> getElement()
+ {
+  return element;
+ }
+
+ /**
+  * Returns the string that separates elements of a delimited value.
+  * The default is a comma.
+  */
+ public String getDelimiter()
+ {
+  return delimiter;
+ }
+
+ /**
+  * Changes the string that separates elements of a delimited value.
+  * Whitespace around elements is ignored. Takes effect on the next load
+  * of this setting.
+  * @param delimiter a non-empty string
+  */
+ public void setDelimiter(String delimiter)
+ {
+  if (delimiter.isEmpty())
+   throw new IllegalArgumentException("Empty delimiter of " + this);
+  this.delimiter = delimiter;
+ }
+
+ /**
+  * Returns the number of elements in this setting's list, or zero if
+  * the setting is not set.
+  * @throws ConfigurationException if the setting's value is not valid
+  */
+ public int size() throws ConfigurationException
+ {
+  List<E> list = getValue();
+  return null == list ? 0 : list.size();
+ }
+
+ /**
+  * Returns an element of this setting's list as a primitive
+  * <code>int</code>, without boxing it if the elements are
+  * {@link Integer integers}.
+  * @param index the position of the element
+  * @throws ConfigurationException if the setting is not set
+  * @throws ClassCastException if the elements are not numbers
+  * @throws IndexOutOfBoundsException if there is no such element
+  */
+ public int getInt(int index) throws ConfigurationException
+ {
+  List<E> list = elements();
+  if (list instanceof IntList)
+   return ((IntList)list).values[index];
+  return ((Number)list.get(index)).intValue();
+ }
+
+ /**
+  * Returns an element of this setting's list as a primitive
+  * <code>long</code>, without boxing it if the elements are
+  * {@link Long long integers}.
+  * @param index the position of the element
+  * @throws ConfigurationException if the setting is not set
+  * @throws ClassCastException if the elements are not numbers
+  * @throws IndexOutOfBoundsException if there is no such element
+  */
+ public long getLong(int index) throws ConfigurationException
+ {
+  List<E> list = elements();
+  if (list instanceof LongList)
+   return ((LongList)list).values[index];
+  return ((Number)list.get(index)).longValue();
+ }
+
+ /**
+  * Returns an element of this setting's list as a primitive
+  * <code>double</code>, without boxing it if the elements are
+  * {@link Double doubles}.
+  * @param index the position of the element
+  * @throws ConfigurationException if the setting is not set
+  * @throws ClassCastException if the elements are not numbers
+  * @throws IndexOutOfBoundsException if there is no such element
+  */
+ public double getDouble(int index) throws ConfigurationException
+ {
+  List<E> list = elements();
+  if (list instanceof DoubleList)
+   return ((DoubleList)list).values[index];
+  return ((Number)list.get(index)).doubleValue();
+ }
+
+ /**
+  * Looks for indexed keys of the list when the delimited value is absent.
+  */
+ @Override
+ public void load(Properties map) throws ConfigurationException
+ {
+  source = map;
+  try
+  {
+   super.load(map);
+  }
+  finally
+  {
+   source = null;
+  }
+ }
+
+ /**
+  * Looks for indexed keys of the list when the delimited value is absent.
+  */
+ @Override
+ public void load(ConfigurationSnapshot snapshot) throws ConfigurationException
+ {
+  source = snapshot;
+  try
+  {
+   super.load(snapshot);
+  }
+  finally
+  {
+   source = null;
+  }
+ }
+
+ /**
+  * Collects the indexed elements of the list if <code>valueString</code>
+  * is <code>null</code>. The text of a list read from indexed keys
+  * is its elements joined by the {@link #getDelimiter() delimiter}.
+  */
+ @Override
+ protected void loadValue(String valueString) throws ConfigurationException
+ {
+  items = null;
+  if (null == valueString && null != source)
+  {
+   List<String> indexed = new ArrayList<String>();
+   for (String item; null != (item = lookup(source, getName() + '.' + indexed.size()));)
+    indexed.add(item.trim());
+   if (!indexed.isEmpty())
+   {
+    items = indexed.toArray(new String[indexed.size()]);
+    valueString = String.join(delimiter, indexed);
+   }
+  }
+  super.loadValue(valueString);
+ }
+
+ /**
+  * Returns <code>null</code> if the setting is not set.
+  */
+ @Override
+ protected List<E> convert(String text) throws ConfigurationException
+ {
+  if (null == text)
+   return null;
+  String[] parts = null != items ? items : split(text, delimiter);
+  if (null != elements)
+   return convert(parts, elements.get());
+  synchronized (element)
+  {
+   return convert(parts, element);
+  }
+ }
+
+ /**
+  * Splits a delimited value into trimmed parts. Blank text has no parts.
+  */
+ static String[] split(String text, String delimiter)
+ {
+  if (text.trim().isEmpty())
+   return new String[0];
+  List<String> parts = new ArrayList<String>();
+  int from = 0;
+  for (int at; 0 <= (at = text.indexOf(delimiter, from)); from = at + delimiter.length())
+   parts.add(text.substring(from, at).trim());
+  parts.add(text.substring(from).trim());
+  return parts.toArray(new String[parts.size()]);
+ }
+
+ /**
+  * Looks up a key in a {@link Properties} or {@link ConfigurationSnapshot}
+  * object.
+  */
+ static String lookup(Object source, String key)
+ {
+  return source instanceof ConfigurationSnapshot
+    ? ((ConfigurationSnapshot)source).get(key)
+    : ((Properties)source).getProperty(key);
+ }
+
+ /**
+  * Converts the parts of a list with an element handler that no other
+  * thread is using. Elements handled by an {@link IntegerSetting},
+  * {@link LongSetting} or {@link DoubleSetting} are read with its
+  * primitive accessor.
+  */
+ @SuppressWarnings("unchecked")
+ private List<E> convert(String[] parts, AbstractSetting<?, E> handler)
+   throws ConfigurationException
+ {
+  Class<E> type = handler.getType();
+  if (Integer.class == type)
+  {
+   int[] values = new int[parts.length];
+   for (int i = 0; i < parts.length; i++)
+    try
+    {
+     handler.loadValue(parts[i]);
+     values[i] = handler instanceof IntegerSetting
+       ? ((IntegerSetting<?>)handler).getInt() : ((Number)handler.getValue()).intValue();
+    }
+    catch (ConfigurationException e)
+    {
+     throw invalidElement(i, parts[i], e);
+    }
+   return (List<E>)new IntList(values);
+  }
+  else if (Long.class == type)
+  {
+   long[] values = new long[parts.length];
+   for (int i = 0; i < parts.length; i++)
+    try
+    {
+     handler.loadValue(parts[i]);
+     values[i] = handler instanceof LongSetting
+       ? ((LongSetting<?>)handler).getLong() : ((Number)handler.getValue()).longValue();
+    }
+    catch (ConfigurationException e)
+    {
+     throw invalidElement(i, parts[i], e);
+    }
+   return (List<E>)new LongList(values);
+  }
+  else if (Double.class == type)
+  {
+   double[] values = new double[parts.length];
+   for (int i = 0; i < parts.length; i++)
+    try
+    {
+     handler.loadValue(parts[i]);
+     values[i] = handler instanceof DoubleSetting
+       ? ((DoubleSetting<?>)handler).getDouble() : ((Number)handler.getValue()).doubleValue();
+    }
+    catch (ConfigurationException e)
+    {
+     throw invalidElement(i, parts[i], e);
+    }
+   return (List<E>)new DoubleList(values);
+  }
+  Object[] values = new Object[parts.length];
+  for (int i = 0; i < parts.length; i++)
+   try
+   {
+    handler.loadValue(parts[i]);
+    values[i] = handler.getValue();
+   }
+   catch (ConfigurationException e)
+   {
+    throw invalidElement(i, parts[i], e);
+   }
+  return (List<E>)Collections.unmodifiableList(Arrays.asList(values));
+ }
+
+ private ConfigurationException invalidElement(int index, String text, ConfigurationException cause)
+ {
+  return new ConfigurationException(
+    this + " has an invalid element #" + index + " \"" + text + '"', cause);
+ }
+
+ private List<E> elements() throws ConfigurationException
+ {
+  List<E> list = getValue();
+  if (null == list)
+   throw new ConfigurationException(this + " is not set");
+  return list;
+ }
+
+ private static final class IntList extends AbstractList<Integer> implements RandomAccess
+ {
+  IntList(int[] values)
+  {
+   this.values = values;
+  }
+
+  @Override
+  public Integer get(int index)
+  {
+   return values[index];
+  }
+
+  @Override
+  public int size()
+  {
+   return values.length;
+  }
+
+  final int[] values;
+ }
+
+ private static final class LongList extends AbstractList<Long> implements RandomAccess
+ {
+  LongList(long[] values)
+  {
+   this.values = values;
+  }
+
+  @Override
+  public Long get(int index)
+  {
+   return values[index];
+  }
+
+  @Override
+  public int size()
+  {
+   return values.length;
+  }
+
+  final long[] values;
+ }
+
+ private static final class DoubleList extends AbstractList<Double> implements RandomAccess
+ {
+  DoubleList(double[] values)
+  {
+   this.values = values;
+  }
+
+  @Override
+  public Double get(int index)
+  {
+   return values[index];
+  }
+
+  @Override
+  public int size()
+  {
+   return values.length;
+  }
+
+  final double[] values;
+ }
+
+ private final Supplier<? extends AbstractSetting<?, E>> elements;
+ private final AbstractSetting<?, E> element;
+ private String delimiter = ",";
+ private Object source;
+ private String[] items;
+}
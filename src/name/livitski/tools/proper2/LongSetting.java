@@ -36,17 +36,34 @@ public abstract class LongSetting<D> extends AbstractSetting<D, Long>
   return Long.class;
  }
 
+ /**
+  * Returns the value of this setting as a primitive <code>long</code>
+  * without boxing it.
+  * @throws ConfigurationException if the setting's value is not
+  * a long integer or the setting is not set
+  * @see #getValue()
+  */
+ public long getLong() throws ConfigurationException
+ {
+  getValue();
+  return longValue;
+ }
+
  @Override
- public Long getValue() throws ConfigurationException
+ protected Long convert(String text) throws ConfigurationException
  {
   try
   {
-   return Long.valueOf((String)valueString);
+   long value = Long.parseLong(text);
+   longValue = value;
+   return value;
   }
   catch (NumberFormatException e)
   {
    throw new ConfigurationException(
-     this + " encountered an invalid long integer \"" + valueString + '"', e);
+     this + " encountered an invalid long integer \"" + text + '"', e);
   }
  }
+
+ private long longValue;
 }
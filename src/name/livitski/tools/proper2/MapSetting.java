@@ -0,0 +1,308 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Supplier;
+
+/**
+ * Parses a setting that maps keys to values. The map is either written
+ * as a single delimited value, e.g.
+ * <code>weights = primary=3, replica=1</code>, or as keys under the
+ * setting's name, e.g. <code>weights.primary = 3</code>. The delimited
+ * value takes precedence if both are present. Keys under the setting's
+ * name are read in their lexicographic order, using the
+ * {@link ConfigurationSnapshot#keysWithPrefix(String) key index} of
+ * snapshots. Keys and values are converted by element handlers, such
+ * as a {@link StringSetting} and an {@link IntegerSetting}, which apply
+ * their constraints to each entry. A setting made with factories of
+ * element handlers converts each map with new handlers, so that maps of
+ * {@link #isTransient() transient} settings can be converted by several
+ * threads at once. The map is parsed once per load and
+ * returned as an immutable object that keeps the order of entries.
+ * @param <D> the class that implements a specific setting
+ * @param <K> the type of keys of this setting's values
+ * @param <V> the type of values mapped to those keys
+ */
+public abstract class MapSetting<D, K, V> extends AbstractSetting<D, Map<K, V>>
+{
+ /**
+  * @param name the key of this setting in the configuration file
+  * @param keys the factory of handlers that convert keys of the map,
+  * which must return a new handler on each call
+  * @param values the factory of handlers that convert values of the map,
+  * which must return a new handler on each call
+  */
+ public MapSetting(String name, Supplier<? extends AbstractSetting<?, K>> keys,
+   Supplier<? extends AbstractSetting<?, V>> values)
+ {
+  super(name);
+  this.keyElements = keys;
+  this.valueElements = values;
+  this.key = keys.get();
+  this.value = values.get();
+ }
+
+ /**
+  * Maps created with this constructor are converted one at a time,
+  * since both element handlers are reloaded with the text of each entry.
+  * Neither handler may be used elsewhere.
+  * @param name the key of this setting in the configuration file
+  * @param key the handler that converts keys of the map
+  * @param value the handler that converts values of the map
+  * @see #MapSetting(String, Supplier, Supplier)
+  */
+ public MapSetting(String name, AbstractSetting<?, K> key, AbstractSetting<?, V> value)
+ {
+  super(name);
+  this.keyElements = null;
+  this.valueElements = null;
+  this.key = key;
+  this.value = value;
+ }
+
+ @SuppressWarnings("unchecked")
+ @Override
+ public Class<Map<K, V>> getType()
+ {
+  return (Class<Map<K, V>>)(Class<?>)Map.class;
+ }
+
+ /**
+  * Returns the handler that converts keys of the map, or the first
+  * handler made by the factory of key handlers.
+  */
+ public AbstractSetting<?, K> getKeyElement()
+ {
+  return key;
+ }
+
+ /**
+  * Returns the handler that converts values of the map, or the first
+  * handler made by the factory of value handlers.
+  */
+ public AbstractSetting<?, V> getValueElement()
+ {
+  return value;
+ }
+
+ /**
+  * Returns the string that separates entries of a delimited value.
+  * The default is a comma.
+  */
+ public String getDelimiter()
+ {
+  return delimiter;
+ }
+
+ /**
+  * Changes the string that separates entries of a delimited value.
+  * Whitespace around entries is ignored. Takes effect on the next load
+  * of this setting.
+  * @param delimiter a non-empty string
+  */
+ public void setDelimiter(String delimiter)
+ {
+  if (delimiter.isEmpty())
+   throw new IllegalArgumentException("Empty delimiter of " + this);
+  this.delimiter = delimiter;
+ }
+
+ /**
+  * Returns the string that separates a key from its value within
+  * an entry of a delimited value. The default is an equals sign.
+  * Entries are split at the first separator.
+  */
+ public String getSeparator()
+ {
+  return separator;
+ }
+
+ /**
+  * Changes the string that separates a key from its value within
+  * an entry of a delimited value. Takes effect on the next load
+  * of this setting.
+  * @param separator a non-empty string that differs from the
+  * {@link #getDelimiter() delimiter}
+  */
+ public void setSeparator(String separator)
+ {
+  if (separator.isEmpty())
+   throw new IllegalArgumentException("Empty separator of " + this);
+  this.separator = separator;
+ }
+
+ /**
+  * Looks for keys under the setting's name when the delimited value
+  * is absent.
+  */
+ @Override
+ public void load(Properties map) throws ConfigurationException
+ {
+  source = map;
+  try
+  {
+   super.load(map);
+  }
+  finally
+  {
+   source = null;
+  }
+ }
+
+ /**
+  * Looks for keys under the setting's name when the delimited value
+  * is absent.
+  */
+ @Override
+ public void load(ConfigurationSnapshot snapshot) throws ConfigurationException
+ {
+  source = snapshot;
+  try
+  {
+   super.load(snapshot);
+  }
+  finally
+  {
+   source = null;
+  }
+ }
+
+ /**
+  * Collects the entries under the setting's name if <code>valueString</code>
+  * is <code>null</code>. The text of a map read from those entries
+  * is the entries joined by the {@link #getDelimiter() delimiter}.
+  */
+ @Override
+ protected void loadValue(String valueString) throws ConfigurationException
+ {
+  keys = values = null;
+  if (null == valueString && null != source)
+  {
+   String prefix = getName() + '.';
+   Iterable<String> names;
+   if (source instanceof ConfigurationSnapshot)
+    names = ((ConfigurationSnapshot)source).keysWithPrefix(prefix);
+   else
+   {
+    List<String> matches = new ArrayList<String>();
+    for (String name : ((Properties)source).stringPropertyNames())
+     if (name.startsWith(prefix))
+      matches.add(name);
+    Collections.sort(matches);
+    names = matches;
+   }
+   List<String> keys = new ArrayList<String>();
+   List<String> values = new ArrayList<String>();
+   StringBuilder text = new StringBuilder();
+   for (String name : names)
+   {
+    String key = name.substring(prefix.length());
+    String value = ListSetting.lookup(source, name).trim();
+    if (!keys.isEmpty())
+     text.append(delimiter);
+    text.append(key).append(separator).append(value);
+    keys.add(key);
+    values.add(value);
+   }
+   if (!keys.isEmpty())
+   {
+    this.keys = keys.toArray(new String[keys.size()]);
+    this.values = values.toArray(new String[values.size()]);
+    valueString = text.toString();
+   }
+  }
+  super.loadValue(valueString);
+ }
+
+ /**
+  * Returns <code>null</code> if the setting is not set.
+  */
+ @Override
+ protected Map<K, V> convert(String text) throws ConfigurationException
+ {
+  if (null == text)
+   return null;
+  String[] keys = this.keys, values = this.values;
+  if (null == keys)
+  {
+   String[] entries = ListSetting.split(text, delimiter);
+   keys = new String[entries.length];
+   values = new String[entries.length];
+   for (int i = 0; i < entries.length; i++)
+   {
+    int at = entries[i].indexOf(separator);
+    if (0 > at)
+     throw new ConfigurationException(
+       this + " has an entry without a separator \"" + entries[i] + '"');
+    keys[i] = entries[i].substring(0, at).trim();
+    values[i] = entries[i].substring(at + separator.length()).trim();
+   }
+  }
+  if (null != keyElements)
+   return convert(keys, values, keyElements.get(), valueElements.get());
+  // the handlers are used by this setting only, so one lock guards both
+  synchronized (key)
+  {
+   return convert(keys, values, key, value);
+  }
+ }
+
+ /**
+  * Converts the keys and values of a map with element handlers that
+  * no other thread is using.
+  */
+ private Map<K, V> convert(String[] keys, String[] values,
+   AbstractSetting<?, K> keyHandler, AbstractSetting<?, V> valueHandler)
+   throws ConfigurationException
+ {
+  Map<K, V> map = new LinkedHashMap<K, V>(keys.length * 4 / 3 + 1);
+  for (int i = 0; i < keys.length; i++)
+   map.put(convertElement(keyHandler, "key", keys[i]),
+     convertElement(valueHandler, "value", values[i]));
+  return Collections.unmodifiableMap(map);
+ }
+
+ private <T> T convertElement(AbstractSetting<?, T> element, String role, String text)
+   throws ConfigurationException
+ {
+  try
+  {
+   element.loadValue(text);
+   return element.getValue();
+  }
+  catch (ConfigurationException e)
+  {
+   throw new ConfigurationException(
+     this + " has an invalid " + role + " \"" + text + '"', e);
+  }
+ }
+
+ private final Supplier<? extends AbstractSetting<?, K>> keyElements;
+ private final Supplier<? extends AbstractSetting<?, V>> valueElements;
+ private final AbstractSetting<?, K> key;
+ private final AbstractSetting<?, V> value;
+ private String delimiter = ",";
+ private String separator = "=";
+ private Object source;
+ private String[] keys, values;
+}
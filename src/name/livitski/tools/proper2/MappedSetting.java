@@ -16,17 +16,18 @@
  */
 package name.livitski.tools.proper2;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * Parses and stores a setting that can take values from an array, a
  * set, or a map that links stored string values to actual values
- * retrieved from the property. This class copies the structure of all
- * possible values passed to its constructor. Therefore, subsequent
- * changes to that structure
- * do not affect the values this object will recognize. 
+ * retrieved from the property. Constructors that accept those
+ * structures copy them. Therefore, subsequent changes to that structure
+ * do not affect the values this object will recognize. Handlers of
+ * settings with many possible values should build a {@link ValueDomain}
+ * once and pass it to {@link #MappedSetting(String, Class, ValueDomain)}
+ * instead, which lets them share the domain without copying it. 
  * @param E the type of possible values of this setting
  */
 public abstract class MappedSetting<D, E>
@@ -41,16 +42,7 @@ public abstract class MappedSetting<D, E>
   */
  public MappedSetting(String name, Class<E> type, Set<E> possibleValues)
  {
-  super(name);
-  this.type = type;
-  this.possibleValuesMap = new HashMap<String, E>(possibleValues.size(), 1f);
-  for (E value : possibleValues)
-  {
-   if (null != this.possibleValuesMap.put(value.toString(), value))
-    throw new IllegalArgumentException("Value "
-      + value + " of setting '" + name
-      + "' has a non-unique string form among possible values of that setting.");
-  }
+  this(name, type, ValueDomain.of(possibleValues));
  }
 
  /**
@@ -62,16 +54,8 @@ public abstract class MappedSetting<D, E>
  @SuppressWarnings("unchecked")
  public MappedSetting(String name, E[] possibleValues)
  {
-  super(name);
-  this.type = (Class<E>)possibleValues.getClass().getComponentType();
-  this.possibleValuesMap = new HashMap<String, E>(possibleValues.length, 1f);
-  for (E value : possibleValues)
-  {
-   if (null != this.possibleValuesMap.put(value.toString(), value))
-    throw new IllegalArgumentException("Value "
-      + value + " of setting '" + name
-      + "' has a non-unique string form among possible values of that setting.");
-  }
+  this(name, (Class<E>)possibleValues.getClass().getComponentType(),
+    ValueDomain.of(possibleValues));
  }
 
  /**
@@ -83,11 +67,22 @@ public abstract class MappedSetting<D, E>
   * retrieved values of this setting
   */
  public MappedSetting(String name, Class<E> type, Map<String,E> possibleValuesMap)
+ {
+  this(name, type, ValueDomain.of(possibleValuesMap));
+ }
+
+ /**
+  * Constrains the possible property values to the string forms of
+  * values in a domain. The domain is shared rather than copied.
+  * @param name the property name
+  * @param type common supertype of all possible retrieved values of this setting
+  * @param domain all possible values of this setting
+  */
+ public MappedSetting(String name, Class<E> type, ValueDomain<E> domain)
  {
   super(name);
   this.type = type;
-  this.possibleValuesMap = new HashMap<String, E>(possibleValuesMap.size(), 1f);
-  this.possibleValuesMap.putAll(possibleValuesMap);
+  this.domain = domain;
  }
 
  @Override
@@ -96,18 +91,26 @@ public abstract class MappedSetting<D, E>
   return type;
  }
 
+ /**
+  * Returns the possible values of this setting.
+  */
+ public ValueDomain<E> getDomain()
+ {
+  return domain;
+ }
+
  @Override
- public E getValue() throws ConfigurationException
+ protected E convert(String text) throws ConfigurationException
  {
-  if (null == valueString)
+  if (null == text)
    return null;
-  E value = possibleValuesMap.get(valueString);
+  E value = domain.get(text);
   if (null == value)
    throw new ConfigurationException(
-     "Unrecognized value of setting \"" + getName() + "\": " + valueString);
+     "Unrecognized value of setting \"" + getName() + "\": " + text);
   return value;
  }
 
  private Class<E> type;
- private Map<String,E> possibleValuesMap;
+ private final ValueDomain<E> domain;
 }
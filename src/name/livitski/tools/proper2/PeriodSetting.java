@@ -0,0 +1,54 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.time.Period;
+
+/**
+ * Parses and stores a setting with a date-based {@link Period} value,
+ * written in the {@link Period#parse(CharSequence) ISO-8601} format,
+ * such as <code>P1Y2M</code>.
+ * @param <D> the class that implements a specific setting
+ */
+public abstract class PeriodSetting<D> extends TemporalSetting<D, Period>
+{
+ /**
+  * @param name the key of this setting in the configuration file
+  */
+ public PeriodSetting(String name)
+ {
+  super(name);
+ }
+
+ @Override
+ public Class<Period> getType()
+ {
+  return Period.class;
+ }
+
+ @Override
+ protected Period parse(String text)
+ {
+  return Period.parse(text);
+ }
+
+ @Override
+ protected String describeValues()
+ {
+  return "period";
+ }
+}
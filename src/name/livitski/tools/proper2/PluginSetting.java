@@ -0,0 +1,209 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a full class name from the configuration file and creates
+ * instances of that class, which must implement a known interface or
+ * extend a known class and have a public no-argument constructor.
+ * The class is resolved, and its {@link #getValue() shared instance}
+ * is created, once per load of this setting. Since
+ * {@link Configuration configurations} keep one handler per settings'
+ * snapshot, pluggable components obtained from cached handlers are
+ * created once per snapshot rather than once per lookup.
+ * Components that are not thread-safe may be
+ * {@link #borrowInstance() borrowed} from a pool instead.
+ * @param <D> the class that implements a specific setting
+ * @param <T> the type that configured classes must implement
+ */
+public abstract class PluginSetting<D, T> extends AbstractSetting<D, T>
+{
+ /**
+  * @param name the key of this setting in the configuration file
+  * @param type the type that configured classes must implement
+  */
+ public PluginSetting(String name, Class<T> type)
+ {
+  super(name);
+  this.type = type;
+ }
+
+ @Override
+ public Class<T> getType()
+ {
+  return type;
+ }
+
+ /**
+  * Creates a new instance of the configured class, bypassing both the
+  * shared instance and the pool.
+  * @throws ConfigurationException if the setting is not set or
+  * the instance could not be created
+  */
+ public T newInstance() throws ConfigurationException
+ {
+  getValue();
+  Constructor<? extends T> constructor = this.constructor;
+  if (null == constructor)
+   throw new ConfigurationException(this + " is not set in the configuration");
+  return instantiate(constructor);
+ }
+
+ /**
+  * Takes an instance of the configured class from the pool of this
+  * handler, creating one if the pool is empty. Return the instance to
+  * the pool by calling {@link #returnInstance(Object)} when done.
+  * @throws ConfigurationException if the setting is not set or
+  * the instance could not be created
+  */
+ public T borrowInstance() throws ConfigurationException
+ {
+  getValue();
+  Pool<T> pool = this.pool;
+  T instance = pool.idle.poll();
+  if (null == instance)
+   return newInstance();
+  pool.size.decrementAndGet();
+  return instance;
+ }
+
+ /**
+  * Returns an instance {@link #borrowInstance() borrowed} from this
+  * handler to its pool. The instance is discarded if the pool is full,
+  * or if it was borrowed before this setting was reloaded.
+  * @param instance the instance to return
+  */
+ public void returnInstance(T instance)
+ {
+  Pool<T> pool = this.pool;
+  if (null == instance || instance.getClass() != pool.clazz)
+   return;
+  if (pool.size.incrementAndGet() > maxPoolSize)
+   pool.size.decrementAndGet();
+  else
+   pool.idle.offer(instance);
+ }
+
+ /**
+  * Returns the greatest number of idle instances kept in the pool.
+  */
+ public int getMaxPoolSize()
+ {
+  return maxPoolSize;
+ }
+
+ /**
+  * Limits the number of idle instances kept in the pool.
+  * @param maxPoolSize the greatest number of idle instances to keep
+  */
+ public void setMaxPoolSize(int maxPoolSize)
+ {
+  this.maxPoolSize = maxPoolSize;
+ }
+
+ /**
+  * Resolves the configured class and creates its shared instance.
+  * Returns <code>null</code> if the setting is not set.
+  */
+ @Override
+ protected T convert(String text) throws ConfigurationException
+ {
+  if (null == text)
+   return null;
+  Class<?> clazz;
+  try
+  {
+   clazz = Class.forName(text, true, Thread.currentThread().getContextClassLoader());
+  }
+  catch (ClassNotFoundException e)
+  {
+   throw new ConfigurationException(
+     this + " could not find class: " + text, e);
+  }
+  if (!type.isAssignableFrom(clazz))
+   throw new ConfigurationException(
+     this + " refers to " + clazz + " that is not a " + type.getName());
+  Constructor<? extends T> constructor;
+  try
+  {
+   constructor = clazz.asSubclass(type).getConstructor();
+  }
+  catch (NoSuchMethodException e)
+  {
+   throw new ConfigurationException(
+     this + " refers to " + clazz + " that has no public default constructor", e);
+  }
+  T instance = instantiate(constructor);
+  this.constructor = constructor;
+  this.pool = new Pool<T>(clazz);
+  return instance;
+ }
+
+ @Override
+ protected void loadValue(String valueString) throws ConfigurationException
+ {
+  constructor = null;
+  pool = new Pool<T>(null);
+  super.loadValue(valueString);
+ }
+
+ private T instantiate(Constructor<? extends T> constructor)
+   throws ConfigurationException
+ {
+  try
+  {
+   return constructor.newInstance();
+  }
+  catch (InvocationTargetException e)
+  {
+   throw new ConfigurationException(
+     this + " could not create an instance of " + constructor.getDeclaringClass(),
+     e.getCause());
+  }
+  catch (ReflectiveOperationException e)
+  {
+   throw new ConfigurationException(
+     this + " could not create an instance of " + constructor.getDeclaringClass(), e);
+  }
+ }
+
+ /**
+  * Idle instances of a configured class.
+  */
+ private static final class Pool<T>
+ {
+  Pool(Class<?> clazz)
+  {
+   this.clazz = clazz;
+  }
+
+  final Class<?> clazz;
+  final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+  final AtomicInteger size = new AtomicInteger();
+ }
+
+ private final Class<T> type;
+ private volatile Constructor<? extends T> constructor;
+ private volatile Pool<T> pool = new Pool<T>(null);
+ private volatile int maxPoolSize = 8;
+}
@@ -0,0 +1,464 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Reads configuration files in the format of {@link Properties#load(java.io.Reader)}
+ * straight into {@link ConfigurationSnapshot snapshots}. Files are read
+ * through a {@link FileChannel} and decoded with an explicit charset in
+ * fixed-size chunks, so that only the logical line being parsed is held
+ * in memory along with the settings. Unlike {@link Properties}, which
+ * substitutes replacement characters, the parser rejects input that is
+ * not valid in the charset. Malformed input is reported with the line
+ * and column where it occurs.
+ */
+final class PropertiesParser
+{
+ /**
+  * Reads a configuration file.
+  * @param file the file to read
+  * @param charset the encoding of the file
+  * @param defaults the settings to merge into the snapshot unless the
+  * file overrides them
+  * @return the snapshot of the file's contents merged with
+  * <code>defaults</code>
+  * @throws ConfigurationException if the file could not be read
+  * or is malformed
+  */
+ static ConfigurationSnapshot parse(File file, Charset charset, Properties defaults)
+ 	throws ConfigurationException
+ {
+  PropertiesParser parser = new PropertiesParser(file, new char[256], 0);
+  for (String key : defaults.stringPropertyNames())
+   parser.add(key, defaults.getProperty(key));
+  parser.read(charset);
+  return ConfigurationSnapshot.of(parser.keys, parser.values, parser.count);
+ }
+
+ /**
+  * Processes the escape sequences and line continuations in a key or
+  * value of a setting.
+  * @param text the characters of the key or value, which must not
+  * contain line breaks other than continuations
+  * @return the key or value as it would appear in {@link Properties}
+  * @throws ConfigurationException if the text contains a malformed
+  * escape sequence
+  */
+ static String unescape(char[] text) throws ConfigurationException
+ {
+  PropertiesParser parser = new PropertiesParser(null, text, text.length);
+  StringBuilder out = new StringBuilder(text.length);
+  while (parser.pos < parser.end)
+   parser.appendChar(out);
+  return out.toString();
+ }
+
+ /**
+  * Decodes the file chunk by chunk and parses each logical line as soon
+  * as it is complete.
+  */
+ private void read(Charset charset) throws ConfigurationException
+ {
+  CharsetDecoder decoder = charset.newDecoder()
+    .onMalformedInput(CodingErrorAction.REPORT)
+    .onUnmappableCharacter(CodingErrorAction.REPORT);
+  ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+  CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+  try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+  {
+   for (boolean eof = false; !eof;)
+   {
+    eof = 0 > channel.read(bytes);
+    bytes.flip();
+    for (CoderResult result = CoderResult.OVERFLOW; result.isOverflow();)
+    {
+     result = decoder.decode(bytes, chars, eof);
+     chars.flip();
+     scan(chars);
+     chars.clear();
+     if (result.isError())
+      throw new ConfigurationException("Configuration file " + file
+        + " is not valid " + charset.name() + " text at line " + physicalLine
+        + ", column " + (physicalColumn + 1), newCodingException(result));
+    }
+    bytes.compact();
+   }
+   for (CoderResult result = CoderResult.OVERFLOW; result.isOverflow();)
+   {
+    result = decoder.flush(chars);
+    chars.flip();
+    scan(chars);
+    chars.clear();
+   }
+  }
+  catch (IOException ioerr)
+  {
+   throw new ConfigurationException("Error reading configuration file " + file, ioerr);
+  }
+  endInput();
+ }
+
+ /**
+  * Joins decoded characters into logical lines the way
+  * {@link Properties#load(java.io.Reader)} does, and parses each logical
+  * line as soon as it is complete. Leading whitespace, blank lines and
+  * comments are dropped, and a line that ends with an odd number of
+  * backslashes is continued on the next line without the last backslash
+  * and the next line's leading whitespace. A comment starts wherever
+  * a logical line would start, including a continuation of a line that
+  * has nothing but the continuing backslash, and is never continued.
+  * This follows {@link Properties} as of Java 9, which no longer lets
+  * a comment's trailing backslash escape characters on the next line.
+  */
+ private void scan(CharBuffer chars) throws ConfigurationException
+ {
+  while (chars.hasRemaining())
+  {
+   char c = chars.get();
+   continuedAtEnd = false;
+   if (afterCR)
+   {
+    afterCR = false;
+    if ('\n' == c)
+     continue;
+   }
+   if ('\uFEFF' == c && !started)
+   {
+    // skip the byte order mark that some editors write
+    started = true;
+    continue;
+   }
+   started = true;
+   boolean lineEnd = isLineEnd(c);
+   int column = physicalColumn;
+   if (lineEnd)
+   {
+    physicalLine++;
+    physicalColumn = 0;
+    afterCR = '\r' == c;
+   }
+   else
+    physicalColumn++;
+   if (comment)
+   {
+    if (lineEnd)
+     startLine();
+    continue;
+   }
+   if (skipWhitespace)
+   {
+    if (' ' == c || '\t' == c || '\f' == c)
+     continue;
+    if (!continued && lineEnd)
+     continue;
+    skipWhitespace = false;
+    continued = false;
+   }
+   if (0 == end && ('#' == c || '!' == c))
+   {
+    comment = true;
+    continue;
+   }
+   if (!lineEnd)
+   {
+    if (segmentPending)
+    {
+     addSegment(column);
+     segmentPending = false;
+    }
+    append(c);
+    escaped = '\\' == c && !escaped;
+   }
+   else if (0 == end)
+    // an empty logical line, such as a lone backslash and a blank line
+    startLine();
+   else if (escaped)
+   {
+    // drop the backslash and continue on the next line
+    end--;
+    escaped = false;
+    skipWhitespace = true;
+    continued = true;
+    continuedAtEnd = true;
+    segmentPending = true;
+   }
+   else
+   {
+    parseLine();
+    startLine();
+   }
+  }
+ }
+
+ /**
+  * Parses the logical line that ends the input, if any.
+  */
+ private void endInput() throws ConfigurationException
+ {
+  // like Properties, take a line continued by the last character as is
+  if (continuedAtEnd || 0 < end)
+  {
+   if (escaped)
+    end--;
+   parseLine();
+  }
+ }
+
+ private void startLine()
+ {
+  end = 0;
+  segments = 0;
+  segmentPending = true;
+  skipWhitespace = true;
+  continued = false;
+  comment = false;
+  escaped = false;
+ }
+
+ /**
+  * Records where a physical line's part of the logical line starts,
+  * for error messages.
+  * @param column the zero-based column of that part's first character
+  */
+ private void addSegment(int column)
+ {
+  if (segments == segmentStarts.length)
+  {
+   segmentStarts = Arrays.copyOf(segmentStarts, 2 * segments);
+   segmentLines = Arrays.copyOf(segmentLines, 2 * segments);
+   segmentColumns = Arrays.copyOf(segmentColumns, 2 * segments);
+  }
+  segmentStarts[segments] = end;
+  segmentLines[segments] = physicalLine;
+  segmentColumns[segments++] = column;
+ }
+
+ private void append(char c)
+ {
+  if (end == text.length)
+   text = Arrays.copyOf(text, 2 * end);
+  text[end++] = c;
+ }
+
+ /**
+  * Splits the logical line read so far into a key and value in the way
+  * of {@link Properties#load(java.io.Reader)}.
+  */
+ private void parseLine() throws ConfigurationException
+ {
+  pos = 0;
+  key.setLength(0);
+  // the key ends at an unescaped separator or whitespace
+  while (pos < end)
+  {
+   char c = text[pos];
+   if ('=' == c || ':' == c || ' ' == c || '\t' == c || '\f' == c)
+    break;
+   if (!appendChar(key))
+    break;
+  }
+  skipWhitespace();
+  if (pos < end && ('=' == text[pos] || ':' == text[pos]))
+  {
+   pos++;
+   skipWhitespace();
+  }
+  value.setLength(0);
+  while (pos < end)
+   appendChar(value);
+  add(key.toString(), value.toString());
+ }
+
+ private static CharacterCodingException newCodingException(CoderResult result)
+ {
+  try
+  {
+   result.throwException();
+  }
+  catch (CharacterCodingException e)
+  {
+   return e;
+  }
+  return new CharacterCodingException();
+ }
+
+ private PropertiesParser(File file, char[] text, int end)
+ {
+  this.file = file;
+  this.text = text;
+  this.end = end;
+ }
+
+ /**
+  * Appends the character or escape sequence at the current position to
+  * a string, following continuation lines.
+  * @return <code>false</code> if the current position was at a line
+  * continuation that ended the input
+  */
+ private boolean appendChar(StringBuilder out) throws ConfigurationException
+ {
+  char c = text[pos++];
+  if ('\\' != c)
+  {
+   out.append(c);
+   return true;
+  }
+  if (pos >= end)
+   return false;
+  c = text[pos++];
+  switch (c)
+  {
+  case '\r':
+  case '\n':
+   pos--;
+   endLine();
+   // a continuation line starts at its first non-whitespace character
+   skipWhitespace();
+   return true;
+  case 't':
+   out.append('\t');
+   break;
+  case 'n':
+   out.append('\n');
+   break;
+  case 'r':
+   out.append('\r');
+   break;
+  case 'f':
+   out.append('\f');
+   break;
+  case 'u':
+   int code = 0;
+   for (int i = 0; i < 4; i++, pos++)
+   {
+    int digit = pos < end ? Character.digit(text[pos], 16) : -1;
+    if (0 > digit)
+     throw syntaxError(pos, "malformed \\uxxxx escape");
+    code = (code << 4) | digit;
+   }
+   out.append((char)code);
+   break;
+  default:
+   out.append(c);
+  }
+  return true;
+ }
+
+ private void skipWhitespace()
+ {
+  while (pos < end && (' ' == text[pos] || '\t' == text[pos] || '\f' == text[pos]))
+   pos++;
+ }
+
+ /**
+  * Moves past the line terminator at the current position.
+  */
+ private void endLine()
+ {
+  if ('\r' == text[pos++] && pos < end && '\n' == text[pos])
+   pos++;
+  line++;
+  lineStart = pos;
+ }
+
+ private static boolean isLineEnd(char c)
+ {
+  return '\n' == c || '\r' == c;
+ }
+
+ private ConfigurationException syntaxError(int at, String problem)
+ {
+  int line = this.line, column = at - lineStart + 1;
+  for (int i = segments - 1; i >= 0; i--)
+   if (segmentStarts[i] <= at)
+   {
+    line = segmentLines[i];
+    column = segmentColumns[i] + at - segmentStarts[i] + 1;
+    break;
+   }
+  return new ConfigurationException("Syntax error in configuration file " + file
+    + " at line " + line + ", column " + column + ": " + problem);
+ }
+
+ private void add(String key, String value)
+ {
+  if (count == keys.length)
+  {
+   keys = Arrays.copyOf(keys, 2 * count);
+   values = Arrays.copyOf(values, 2 * count);
+  }
+  keys[count] = key;
+  values[count++] = value;
+ }
+
+ /**
+  * Number of bytes read and characters decoded at a time.
+  */
+ private static final int CHUNK_SIZE = 8192;
+
+ private final File file;
+ /**
+  * The text being parsed: a logical line read from a file, with its
+  * continuations removed, or the text passed to {@link #unescape(char[])}.
+  */
+ private char[] text;
+ private int end;
+ private int pos;
+ /**
+  * Position of the current line in the text passed to
+  * {@link #unescape(char[])}.
+  */
+ private int line = 1;
+ private int lineStart;
+ private final StringBuilder key = new StringBuilder();
+ private final StringBuilder value = new StringBuilder();
+ /**
+  * Offsets in the logical line where the parts of its physical lines
+  * start, with those lines' numbers and the columns of those parts.
+  */
+ private int[] segmentStarts = new int[4];
+ private int[] segmentLines = new int[4];
+ private int[] segmentColumns = new int[4];
+ private int segments;
+ private boolean segmentPending = true;
+ private int physicalLine = 1;
+ private int physicalColumn;
+ private boolean started;
+ private boolean afterCR;
+ private boolean skipWhitespace = true;
+ private boolean continued;
+ private boolean comment;
+ private boolean escaped;
+ private boolean continuedAtEnd;
+ private String[] keys = new String[64];
+ private String[] values = new String[64];
+ private int count;
+}
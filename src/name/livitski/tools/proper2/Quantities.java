@@ -0,0 +1,88 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.math.BigDecimal;
+
+/**
+ * Parses quantities written as a decimal number followed by a unit,
+ * such as <code>250ms</code> or <code>1.5 GiB</code>, into whole numbers
+ * of base units.
+ */
+final class Quantities
+{
+ /**
+  * Parses a quantity.
+  * @param text the text to parse
+  * @param units the names of accepted units, matched ignoring case
+  * @param factors the numbers of base units in each of <code>units</code>
+  * @param defaultFactor the number of base units in a quantity written
+  * without a unit, or <code>0</code> if the unit is required
+  * @return the quantity in base units
+  * @throws NumberFormatException if the text is not a number with an
+  * accepted unit, or its value is not a whole number of base units
+  * that fits in a <code>long</code>
+  */
+ static long parse(String text, String[] units, long[] factors, long defaultFactor)
+ {
+  text = text.trim();
+  int end = text.length();
+  while (0 < end && !isNumeric(text.charAt(end - 1)))
+   end--;
+  String unit = text.substring(end).trim();
+  long factor = defaultFactor;
+  if (!unit.isEmpty())
+  {
+   factor = 0;
+   for (int i = 0; i < units.length; i++)
+    if (units[i].equalsIgnoreCase(unit))
+    {
+     factor = factors[i];
+     break;
+    }
+   if (0 == factor)
+    throw new NumberFormatException("Unknown unit \"" + unit + '"');
+  }
+  else if (0 == factor)
+   throw new NumberFormatException("Missing unit in \"" + text + '"');
+  String number = text.substring(0, end);
+  // the fast path covers the usual whole numbers without allocating big decimals
+  boolean whole = true;
+  for (int i = 0; whole && i < number.length(); i++)
+   whole = Character.isDigit(number.charAt(i));
+  try
+  {
+   if (whole && 0 < number.length() && 18 >= number.length())
+    return Math.multiplyExact(Long.parseLong(number), factor);
+   return new BigDecimal(number).multiply(BigDecimal.valueOf(factor)).longValueExact();
+  }
+  catch (ArithmeticException e)
+  {
+   throw new NumberFormatException("\"" + text
+     + "\" is out of range or not a whole number of base units");
+  }
+ }
+
+ private static boolean isNumeric(char c)
+ {
+  return '0' <= c && '9' >= c || '.' == c;
+ }
+
+ private Quantities()
+ {
+ }
+}
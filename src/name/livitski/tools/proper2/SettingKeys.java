@@ -0,0 +1,108 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Assigns compact integer slots to the keys of settings, so that
+ * {@link ConfigurationSnapshot snapshots} can store the values of
+ * those settings in arrays. Slots are allocated once per key and
+ * process, since snapshots may be shared among configurations. Their
+ * number is limited, so that handlers with keys made up at run time
+ * cannot exhaust memory. Keys registered after the limit is reached
+ * get no slots and are looked up by name.
+ */
+final class SettingKeys
+{
+ /**
+  * Returns the slot assigned to a key, allocating a new slot if that
+  * key has not been registered yet.
+  * @return the slot of <code>key</code>, or <code>-1</code> if all
+  * slots have been allocated to other keys
+  */
+ static int register(String key)
+ {
+  Integer slot = SLOTS.get(key);
+  if (null != slot)
+   return slot;
+  synchronized (SLOTS)
+  {
+   slot = SLOTS.get(key);
+   if (null == slot)
+   {
+    int count = SettingKeys.count;
+    if (MAX_SLOTS == count)
+     return -1;
+    String[] names = SettingKeys.names;
+    if (count == names.length)
+     names = Arrays.copyOf(names, 2 * count);
+    names[count] = key;
+    SettingKeys.names = names;
+    slot = count;
+    // publish the slot before the count, so that every slot below
+    // the count can be found by its key
+    SLOTS.put(key, slot);
+    SettingKeys.count = count + 1;
+   }
+   return slot;
+  }
+ }
+
+ /**
+  * Returns the slot assigned to a key without allocating one.
+  * @return the slot of <code>key</code>, or <code>-1</code> if that
+  * key has not been registered
+  */
+ static int slotOf(String key)
+ {
+  Integer slot = SLOTS.get(key);
+  return null == slot ? -1 : slot;
+ }
+
+ /**
+  * Returns the key that a slot has been assigned to.
+  */
+ static String keyOf(int slot)
+ {
+  return names[slot];
+ }
+
+ /**
+  * Returns the number of slots allocated so far.
+  */
+ static int count()
+ {
+  return count;
+ }
+
+ private SettingKeys()
+ {
+ }
+
+ /**
+  * The greatest number of keys that get slots.
+  */
+ private static final int MAX_SLOTS = 4096;
+
+ private static final ConcurrentMap<String, Integer> SLOTS
+ 	= new ConcurrentHashMap<String, Integer>();
+ private static volatile String[] names = new String[64];
+ private static volatile int count;
+}
@@ -0,0 +1,133 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Parses {@link Configuration#setDefaultsResource(String) defaults resources}
+ * once per class loader and resource path, and shares the results among
+ * all configurations that use the same resource. Resources are assumed
+ * not to change while their class loaders are in use. Shared defaults
+ * must not be modified by the callers.
+ */
+final class SharedDefaults
+{
+ /**
+  * Returns the parsed contents of a resource, reading it if this is the
+  * first request for that resource.
+  * @param forClass the class that resolves the resource's location
+  * @param resource the resource's location relative to
+  * <code>forClass</code>, or <code>null</code> if there are no defaults
+  * @return the default settings, or an empty map if the resource
+  * does not exist
+  * @throws ConfigurationException if there was an error reading
+  * the resource
+  */
+ static Properties get(final Class<?> forClass, final String resource)
+ 	throws ConfigurationException
+ {
+  if (null == resource)
+   return NONE;
+  ConcurrentMap<String, Properties> resources;
+  final ClassLoader loader = forClass.getClassLoader();
+  synchronized (CACHE)
+  {
+   resources = CACHE.get(loader);
+   if (null == resources)
+   {
+    resources = new ConcurrentHashMap<String, Properties>();
+    CACHE.put(loader, resources);
+   }
+  }
+  String path = resolve(forClass, resource);
+  Properties defaults = resources.get(path);
+  if (null == defaults)
+   defaults = resources.computeIfAbsent(path, (String key) -> read(forClass, resource));
+  return defaults;
+ }
+
+ /**
+  * Resolves a resource name in the same way as
+  * {@link Class#getResourceAsStream(String)}.
+  */
+ private static String resolve(Class<?> forClass, String resource)
+ {
+  if (resource.startsWith("/"))
+   return resource.substring(1);
+  String className = forClass.getName();
+  int at = className.lastIndexOf('.');
+  return 0 > at ? resource
+    : className.substring(0, at).replace('.', '/') + '/' + resource;
+ }
+
+ private static Properties read(Class<?> forClass, String resource)
+ 	throws ConfigurationException
+ {
+  InputStream res = forClass.getResourceAsStream(resource);
+  if (null == res)
+   return NONE;
+  Properties defaults = new Properties();
+  Reader input = new InputStreamReader(res);
+  try
+  {
+   defaults.load(input);
+   input.close();
+   input = null;
+  }
+  catch (IOException ioerr)
+  {
+   throw new ConfigurationException(
+     "Error reading configuration defaults from " + forClass.getResource(resource),
+     ioerr);
+  }
+  finally
+  {
+   if (null != input)
+    try { input.close(); }
+    catch(Exception fail)
+    {
+     LOG.warn("Could not close a configuration defaults resource: " + fail.getMessage(), fail);
+    }
+  }
+  return defaults;
+ }
+
+ private SharedDefaults()
+ {
+ }
+
+ private static final Properties NONE = new Properties();
+ private static final Log LOG = LogFactory.getLog(SharedDefaults.class);
+ /**
+  * Holds class loaders weakly, so that the defaults they provided are
+  * discarded along with them.
+  */
+ private static final Map<ClassLoader, ConcurrentMap<String, Properties>> CACHE
+ 	= new WeakHashMap<ClassLoader, ConcurrentMap<String, Properties>>();
+}
@@ -0,0 +1,280 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Lets configurations that read the same file with the same defaults
+ * share a single {@link ConfigurationSnapshot snapshot} of that file.
+ * Snapshots are keyed by the file's canonical path, the identity of its
+ * {@link SharedDefaults shared defaults}, its charset, whether it is read
+ * lazily and the class of configurations that read it, and remain shared
+ * while the file's identity, modification time and size stay the same.
+ * A snapshot of a file modified too recently to tell a later change by
+ * its modification time is not shared. The defaults and classes are
+ * held weakly, and a snapshot is discarded along with its entry when no
+ * configuration holds it anymore.
+ */
+final class SharedSnapshots
+{
+ /**
+  * Returns the snapshot of a configuration file, reading it
+  * if no up-to-date snapshot is shared at the moment.
+  * @param file the configuration file
+  * @param defaults the defaults merged into the returned snapshot
+  * @param charset the encoding of the file
+  * @param lazy whether the snapshot decodes values on demand
+  * @param reader the class of configuration that reads the file
+  * @param parser reads the file and returns a new snapshot that
+  * includes <code>defaults</code>
+  * @return the shared snapshot
+  * @throws ConfigurationException if there was an error reading
+  * the file
+  */
+ static ConfigurationSnapshot get(File file, Properties defaults,
+   Charset charset, boolean lazy, Class<?> reader, Supplier<ConfigurationSnapshot> parser)
+ 	throws ConfigurationException
+ {
+  expunge();
+  Key key = new Key(canonicalPath(file), defaults, charset, lazy, reader);
+  Slot slot = SLOTS.get(key);
+  if (null == slot)
+   slot = SLOTS.computeIfAbsent(key, (Key absent) -> new Slot(absent));
+  // stat the file before parsing, so that changes made meanwhile are not missed
+  Stamp stamp = Stamp.of(file);
+  synchronized (slot)
+  {
+   ConfigurationSnapshot config = null == slot.config ? null : slot.config.get();
+   if (null == config || null == stamp || !stamp.equals(slot.stamp))
+   {
+    config = parser.get();
+    slot.config = new SnapshotReference(config, slot);
+    // a file may change again within the resolution of its timestamp
+    slot.stamp = null != stamp && stamp.isSettled() ? stamp : null;
+   }
+   return config;
+  }
+ }
+
+ /**
+  * Makes configurations read a file again on their next request,
+  * even if the file's modification time and size have not changed.
+  * @param file the configuration file
+  */
+ static void invalidate(File file) throws ConfigurationException
+ {
+  String path = canonicalPath(file);
+  for (Slot slot : SLOTS.values())
+   if (path.equals(slot.key.path))
+    synchronized (slot)
+    {
+     slot.config = null;
+     slot.stamp = null;
+    }
+ }
+
+ private static String canonicalPath(File file)
+ 	throws ConfigurationException
+ {
+  try
+  {
+   return file.getCanonicalPath();
+  }
+  catch (IOException ioerr)
+  {
+   throw new ConfigurationException(
+     "Could not resolve the location of configuration file " + file, ioerr);
+  }
+ }
+
+ /**
+  * Removes the entries of snapshots that have been discarded.
+  */
+ private static void expunge()
+ {
+  for (Reference<?> ref; null != (ref = QUEUE.poll());)
+  {
+   Slot slot = ((SnapshotReference)ref).slot;
+   synchronized (slot)
+   {
+    if (slot.config == ref || null == slot.config)
+     SLOTS.remove(slot.key, slot);
+   }
+  }
+ }
+
+ private SharedSnapshots()
+ {
+ }
+
+ private static final class Key
+ {
+  Key(String path, Properties defaults, Charset charset, boolean lazy, Class<?> reader)
+  {
+   this.path = path;
+   this.defaults = new WeakReference<Properties>(defaults);
+   this.charset = charset;
+   this.lazy = lazy;
+   this.reader = new WeakReference<Class<?>>(reader);
+   this.hash = 31 * (31 * (31 * path.hashCode() + System.identityHashCode(defaults))
+     + charset.hashCode()) + reader.hashCode() + (lazy ? 1 : 0);
+  }
+
+  @Override
+  public int hashCode()
+  {
+   return hash;
+  }
+
+  /**
+   * Keys whose defaults or class have been discarded equal no other key.
+   */
+  @Override
+  public boolean equals(Object obj)
+  {
+   if (this == obj)
+    return true;
+   if (!(obj instanceof Key))
+    return false;
+   Key other = (Key)obj;
+   Object defaults = this.defaults.get(), reader = this.reader.get();
+   return null != defaults && null != reader
+     && defaults == other.defaults.get() && reader == other.reader.get()
+     && lazy == other.lazy && charset.equals(other.charset)
+     && path.equals(other.path);
+  }
+
+  private final String path;
+  private final Reference<Properties> defaults;
+  private final Charset charset;
+  private final boolean lazy;
+  private final Reference<Class<?>> reader;
+  private final int hash;
+ }
+
+ /**
+  * Coarsest resolution of modification times among common file
+  * systems, in milliseconds.
+  */
+ static final long TIMESTAMP_RESOLUTION = 2000L;
+
+ /**
+  * Identity, modification time and size of a file.
+  */
+ private static final class Stamp
+ {
+  /**
+   * Returns the stamp of a file, or <code>null</code> if the file
+   * cannot be examined.
+   */
+  static Stamp of(File file)
+  {
+   try
+   {
+    BasicFileAttributes attributes
+    	= Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    return new Stamp(attributes.fileKey(),
+      attributes.lastModifiedTime().toMillis(), attributes.size());
+   }
+   catch (IOException | RuntimeException unavailable)
+   {
+    return null;
+   }
+  }
+
+  /**
+   * Tells whether the file was modified long enough before this stamp
+   * was taken that any later change will alter its modification time.
+   */
+  boolean isSettled()
+  {
+   return modified + TIMESTAMP_RESOLUTION < taken;
+  }
+
+  @Override
+  public int hashCode()
+  {
+   return (int)(modified ^ length);
+  }
+
+  @Override
+  public boolean equals(Object obj)
+  {
+   if (!(obj instanceof Stamp))
+    return false;
+   Stamp other = (Stamp)obj;
+   return modified == other.modified && length == other.length
+     && (null == fileKey ? null == other.fileKey : fileKey.equals(other.fileKey));
+  }
+
+  private Stamp(Object fileKey, long modified, long length)
+  {
+   this.fileKey = fileKey;
+   this.modified = modified;
+   this.length = length;
+   this.taken = System.currentTimeMillis();
+  }
+
+  private final Object fileKey;
+  private final long modified;
+  private final long length;
+  private final long taken;
+ }
+
+ private static final class Slot
+ {
+  Slot(Key key)
+  {
+   this.key = key;
+  }
+
+  final Key key;
+  Reference<ConfigurationSnapshot> config;
+  Stamp stamp;
+ }
+
+ /**
+  * Refers to a shared snapshot and remembers its entry, so that the
+  * entry can be removed when the snapshot is discarded.
+  */
+ private static final class SnapshotReference extends WeakReference<ConfigurationSnapshot>
+ {
+  SnapshotReference(ConfigurationSnapshot config, Slot slot)
+  {
+   super(config, QUEUE);
+   this.slot = slot;
+  }
+
+  final Slot slot;
+ }
+
+ private static final ConcurrentMap<Key, Slot> SLOTS = new ConcurrentHashMap<Key, Slot>();
+ private static final ReferenceQueue<ConfigurationSnapshot> QUEUE
+ 	= new ReferenceQueue<ConfigurationSnapshot>();
+}
@@ -0,0 +1,104 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Merges the layers of a {@link Configuration#setSources(List) chain}
+ * of configuration sources into one flat snapshot, so that the cost of
+ * lookups does not depend on the number of layers. Remembers the
+ * settings of each layer and re-reads only the layers whose
+ * {@link ConfigurationSource#getVersion() versions} have changed.
+ */
+final class SourceChain
+{
+ SourceChain(List<? extends ConfigurationSource> sources)
+ {
+  this.sources = sources.toArray(new ConfigurationSource[sources.size()]);
+  this.layers = new ConfigurationSnapshot[this.sources.length];
+  this.versions = new Object[this.sources.length];
+ }
+
+ /**
+  * Returns the list of sources in this chain, lowest precedence first.
+  */
+ List<ConfigurationSource> getSources()
+ {
+  return Arrays.asList(sources.clone());
+ }
+
+ /**
+  * Returns the merged settings of all layers, re-reading those
+  * that have changed since the last call.
+  * @return the same snapshot as the last call returned if no layers
+  * have changed
+  */
+ synchronized ConfigurationSnapshot read() throws ConfigurationException
+ {
+  boolean changed = null == merged;
+  for (int i = 0; i < sources.length; i++)
+  {
+   // query the version first, so that changes made while reading are not missed
+   Object version = sources[i].getVersion();
+   if (null == layers[i] || null == version || !version.equals(versions[i]))
+   {
+    ConfigurationSnapshot layer = sources[i].read();
+    changed |= !sameContents(layer, layers[i]);
+    layers[i] = layer;
+    versions[i] = version;
+   }
+  }
+  if (changed)
+   merged = merge();
+  return merged;
+ }
+
+ private ConfigurationSnapshot merge()
+ {
+  int count = 0;
+  for (ConfigurationSnapshot layer : layers)
+   count += layer.size();
+  String[] keys = new String[count], values = new String[count];
+  count = 0;
+  for (ConfigurationSnapshot layer : layers)
+   for (String key : layer.keys())
+   {
+    keys[count] = key;
+    values[count++] = layer.get(key);
+   }
+  return ConfigurationSnapshot.of(keys, values, count);
+ }
+
+ private static boolean sameContents(ConfigurationSnapshot layer, ConfigurationSnapshot other)
+ {
+  if (layer == other)
+   return true;
+  if (null == other || layer.size() != other.size())
+   return false;
+  for (String key : layer.keys())
+   if (!layer.get(key).equals(other.get(key)))
+    return false;
+  return true;
+ }
+
+ private final ConfigurationSource[] sources;
+ private final ConfigurationSnapshot[] layers;
+ private final Object[] versions;
+ private ConfigurationSnapshot merged;
+}
@@ -34,8 +34,8 @@ public abstract class StringSetting<D> extends AbstractSetting<D, String>
  }
 
  @Override
- public String getValue() throws ConfigurationException
+ protected String convert(String text) throws ConfigurationException
  {
-  return valueString;
+  return text;
  }
 }
@@ -0,0 +1,73 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.time.format.DateTimeParseException;
+
+/**
+ * Common base of handlers that parse settings into immutable
+ * <code>java.time</code> objects. Values are parsed as soon as they
+ * are {@link #loadValue(String) loaded}, so that invalid text is
+ * reported by the load, and the resulting objects are shared by all
+ * callers without copying or locking.
+ * @param <D> the class that implements a specific setting
+ * @param <T> the type of values accepted by this setting
+ */
+public abstract class TemporalSetting<D, T> extends AbstractSetting<D, T>
+{
+ /**
+  * @param name the key of this setting in the configuration file
+  */
+ public TemporalSetting(String name)
+ {
+  super(name);
+ }
+
+ /**
+  * Parses the text of this setting. Called at most once per load.
+  * @param text the text of this setting, never <code>null</code>
+  * @return the value of this setting
+  * @throws DateTimeParseException if the text is not a valid value
+  * of this setting
+  */
+ protected abstract T parse(String text);
+
+ /**
+  * Returns a name of the kind of values this setting accepts for use
+  * in error messages.
+  */
+ protected abstract String describeValues();
+
+ /**
+  * Returns <code>null</code> if the setting is not set.
+  */
+ @Override
+ protected T convert(String text) throws ConfigurationException
+ {
+  if (null == text)
+   return null;
+  try
+  {
+   return parse(text);
+  }
+  catch (DateTimeParseException e)
+  {
+   throw new ConfigurationException(
+     this + " encountered an invalid " + describeValues() + " \"" + text + '"', e);
+  }
+ }
+}
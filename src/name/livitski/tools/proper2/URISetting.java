@@ -32,16 +32,16 @@ public abstract class URISetting<D> extends AbstractSetting<D, URI>
  }
 
  @Override
- public URI getValue() throws ConfigurationException
+ protected URI convert(String text) throws ConfigurationException
  {
   try
   {
-   return new URI(valueString);
+   return new URI(text);
   }
   catch (URISyntaxException e)
   {
    throw new ConfigurationException(
-     this + " contains an invalid URI: " + valueString, e);
+     this + " contains an invalid URI: " + text, e);
   }
  }
 
@@ -0,0 +1,258 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable set of values that a {@link MappedSetting} may take, indexed
+ * by their string forms. Build a domain once, for instance in a static
+ * field of a handler class, and pass it to the constructors of handlers,
+ * so that large domains are not copied for every new handler.
+ * Domains match strings exactly by default. Call {@link #ignoringCase()}
+ * and {@link #matchingPrefixes()} to obtain more lenient domains.
+ * @param <E> the type of values in this domain
+ */
+public final class ValueDomain<E>
+{
+ /**
+  * Creates a domain of elements of a collection, as represented by
+  * calling {@link #toString()} on those elements.
+  * @param values all possible values of a setting
+  * @throws IllegalArgumentException if some values have equal string forms
+  */
+ public static <E> ValueDomain<E> of(Collection<? extends E> values)
+ {
+  String[] keys = new String[values.size()];
+  Object[] elements = new Object[keys.length];
+  int i = 0;
+  for (E value : values)
+  {
+   keys[i] = value.toString();
+   elements[i++] = value;
+  }
+  return new ValueDomain<E>(keys, elements, false, false);
+ }
+
+ /**
+  * Creates a domain of elements of an array, as represented by
+  * calling {@link #toString()} on those elements.
+  * @param values all possible values of a setting
+  * @throws IllegalArgumentException if some values have equal string forms
+  */
+ @SafeVarargs
+ public static <E> ValueDomain<E> of(E... values)
+ {
+  List<E> list = new ArrayList<E>(values.length);
+  for (E value : values)
+   list.add(value);
+  return of(list);
+ }
+
+ /**
+  * Creates a domain of the values of a map, represented by their keys.
+  * @param values maps the string forms of all possible values of a
+  * setting to those values
+  */
+ public static <E> ValueDomain<E> of(Map<String, ? extends E> values)
+ {
+  String[] keys = new String[values.size()];
+  Object[] elements = new Object[keys.length];
+  int i = 0;
+  for (Map.Entry<String, ? extends E> entry : values.entrySet())
+  {
+   keys[i] = entry.getKey();
+   elements[i++] = entry.getValue();
+  }
+  return new ValueDomain<E>(keys, elements, false, false);
+ }
+
+ /**
+  * Returns a domain with the same values as this one that matches
+  * their string forms ignoring case.
+  * @throws IllegalArgumentException if string forms of some values
+  * differ only in case
+  */
+ public ValueDomain<E> ignoringCase()
+ {
+  return ignoreCase ? this : new ValueDomain<E>(keys, values, true, matchPrefixes);
+ }
+
+ /**
+  * Returns a domain with the same values as this one that also
+  * accepts any unambiguous prefix of a value's string form. Exact
+  * matches take precedence over prefixes.
+  */
+ public ValueDomain<E> matchingPrefixes()
+ {
+  return matchPrefixes ? this : new ValueDomain<E>(keys, values, ignoreCase, true);
+ }
+
+ /**
+  * Returns the value represented by a string.
+  * @param text the string form of a value
+  * @return the value or <code>null</code> if this domain has no value
+  * represented by <code>text</code>
+  */
+ @SuppressWarnings("unchecked")
+ public E get(String text)
+ {
+  E value = null != exact ? exact.get(text) : (E)folded.get(text);
+  if (null != value || !matchPrefixes)
+   return value;
+  SortedIndex sorted = sorted();
+  String[] keys = sorted.keys;
+  int at = Arrays.binarySearch(keys, text, order());
+  // exact matches have been looked up, so this is an insertion point
+  at = -at - 1;
+  if (at < keys.length && startsWith(keys[at], text)
+    && (at + 1 == keys.length || !startsWith(keys[at + 1], text)))
+   return (E)sorted.values[at];
+  return null;
+ }
+
+ /**
+  * Returns the number of values in this domain.
+  */
+ public int size()
+ {
+  return keys.length;
+ }
+
+ @Override
+ public String toString()
+ {
+  return Arrays.toString(keys);
+ }
+
+ /**
+  * @param keys the string forms of the values, which the domain
+  * shares with other domains derived from it
+  * @param values the values that correspond to <code>keys</code>
+  */
+ private ValueDomain(String[] keys, Object[] values, boolean ignoreCase, boolean matchPrefixes)
+ {
+  this.ignoreCase = ignoreCase;
+  this.matchPrefixes = matchPrefixes;
+  this.keys = keys;
+  this.values = values;
+  if (ignoreCase)
+  {
+   this.exact = null;
+   this.folded = new CaseFoldedTable<Object>(keys, values);
+   // sorting finds the string forms that differ only in case
+   this.sorted = sort();
+  }
+  else
+  {
+   // size the map so that it is never rehashed
+   Map<String, E> exact = new HashMap<String, E>(keys.length * 4 / 3 + 1);
+   for (int i = 0; i < keys.length; i++)
+   {
+    @SuppressWarnings("unchecked")
+    E value = (E)values[i];
+    if (exact.containsKey(keys[i]))
+     throw equivalentForms(exact.get(keys[i]), value, keys[i]);
+    exact.put(keys[i], value);
+   }
+   this.exact = Collections.unmodifiableMap(exact);
+   this.folded = null;
+  }
+ }
+
+ /**
+  * Returns the values sorted by their string forms, sorting them when
+  * a prefix is first looked up, since exact lookups do not need them.
+  */
+ private SortedIndex sorted()
+ {
+  SortedIndex sorted = this.sorted;
+  // the index is immutable, so threads may sort the values concurrently
+  // and publish their copies without synchronization
+  if (null == sorted)
+   this.sorted = sorted = sort();
+  return sorted;
+ }
+
+ private SortedIndex sort()
+ {
+  Integer[] order = new Integer[keys.length];
+  for (int i = 0; i < order.length; i++)
+   order[i] = i;
+  final Comparator<String> comparator = order();
+  Arrays.sort(order, (Integer i, Integer j) -> comparator.compare(keys[i], keys[j]));
+  String[] sortedKeys = new String[keys.length];
+  Object[] sortedValues = new Object[keys.length];
+  for (int i = 0; i < order.length; i++)
+  {
+   sortedKeys[i] = keys[order[i]];
+   sortedValues[i] = values[order[i]];
+   if (0 < i && 0 == comparator.compare(sortedKeys[i - 1], sortedKeys[i]))
+    throw equivalentForms(sortedValues[i - 1], sortedValues[i], sortedKeys[i]);
+  }
+  return new SortedIndex(sortedKeys, sortedValues);
+ }
+
+ private static IllegalArgumentException equivalentForms(Object value, Object other, String key)
+ {
+  return new IllegalArgumentException("Values " + value + " and "
+    + other + " have equivalent string forms \"" + key + '"');
+ }
+
+ private Comparator<String> order()
+ {
+  return ignoreCase ? String.CASE_INSENSITIVE_ORDER : Comparator.<String>naturalOrder();
+ }
+
+ private boolean startsWith(String key, String prefix)
+ {
+  return key.regionMatches(ignoreCase, 0, prefix, 0, prefix.length());
+ }
+
+ private static final class SortedIndex
+ {
+  SortedIndex(String[] keys, Object[] values)
+  {
+   this.keys = keys;
+   this.values = values;
+  }
+
+  /**
+   * String forms of the values sorted in the order of {@link ValueDomain#order()}.
+   */
+  final String[] keys;
+  final Object[] values;
+ }
+
+ private final boolean ignoreCase;
+ private final boolean matchPrefixes;
+ /**
+  * String forms of the values in the order they were passed in.
+  */
+ private final String[] keys;
+ private final Object[] values;
+ private final Map<String, E> exact;
+ private final CaseFoldedTable<Object> folded;
+ private volatile SortedIndex sorted;
+}
@@ -0,0 +1,102 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the {@link LazySnapshot lazy index} of a file finds
+ * the same settings as {@link PropertiesParser}.
+ */
+public class LazySnapshotTest
+{
+ @Test
+ public void continuationsBeforeSeparator() throws IOException, ConfigurationException
+ {
+  assertSameAsParser("long.key \\\n   = value\n");
+  assertSameAsParser("k \\\n \\\n : v\n");
+  assertSameAsParser("k\\\n:v\n");
+  assertSameAsParser("x\\\r\n = y\r\n");
+  assertSameAsParser("k = \\\n  = v\n");
+ }
+
+ @Test
+ public void emptyLogicalLines() throws IOException, ConfigurationException
+ {
+  assertSameAsParser("\\\n\nk=v\n");
+  assertSameAsParser("\\\r\n\r\nk=v");
+  assertSameAsParser("a=1\n\\\n\\\nb=2\n");
+  assertSameAsParser("\\\n  \\\n\nk=1");
+  assertSameAsParser("\\\n#c\nk=v\n");
+  assertSameAsParser("\\\n");
+  assertSameAsParser("\\\r\n");
+  assertSameAsParser("\\");
+ }
+
+ @Before
+ public void createFile() throws IOException
+ {
+  file = File.createTempFile("lazy", ".properties");
+ }
+
+ @After
+ public void deleteFile()
+ {
+  file.delete();
+ }
+
+ private void assertSameAsParser(String text)
+   throws IOException, ConfigurationException
+ {
+  OutputStream out = new FileOutputStream(file);
+  try
+  {
+   out.write(text.getBytes("ISO-8859-1"));
+  }
+  finally
+  {
+   out.close();
+  }
+  Properties defaults = new Properties();
+  assertEquals(text,
+    settings(PropertiesParser.parse(file, StandardCharsets.ISO_8859_1, defaults)),
+    settings(LazySnapshot.index(file, StandardCharsets.ISO_8859_1, defaults)));
+ }
+
+ private static Map<String, String> settings(ConfigurationSnapshot snapshot)
+ {
+  Map<String, String> settings = new TreeMap<String, String>();
+  for (String key : snapshot.keys())
+   settings.put(key, snapshot.get(key));
+  return settings;
+ }
+
+ private File file;
+}
@@ -0,0 +1,95 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that handlers written against the {@link Properties} API
+ * are still loaded by their own {@link AbstractSetting#load(Properties)}.
+ */
+public class LegacyHandlerTest
+{
+ public static class Port extends IntegerSetting<Port>
+ {
+  public Port()
+  {
+   super("port");
+  }
+
+  /**
+   * Reads the port from a legacy key when the current key is absent.
+   */
+  @Override
+  public void load(Properties map) throws ConfigurationException
+  {
+   String value = map.getProperty(getName());
+   loadValue(null == value ? map.getProperty("server.port") : value);
+  }
+ }
+
+ @Before
+ public void writeConfiguration() throws IOException
+ {
+  file = File.createTempFile("legacy", ".properties");
+  OutputStream out = new FileOutputStream(file);
+  try
+  {
+   out.write("server.port=42\n".getBytes("ISO-8859-1"));
+  }
+  finally
+  {
+   out.close();
+  }
+ }
+
+ @After
+ public void deleteConfiguration()
+ {
+  file.delete();
+ }
+
+ @Test
+ public void readSettingUsesLegacyLoad() throws ConfigurationException
+ {
+  Configuration configuration = new Configuration(LegacyHandlerTest.class);
+  configuration.setConfigFile(file);
+  assertEquals(Integer.valueOf(42), configuration.readSetting(Port.class));
+ }
+
+ @Test
+ public void snapshotLoadUsesLegacyLoad() throws ConfigurationException
+ {
+  Configuration configuration = new Configuration(LegacyHandlerTest.class);
+  configuration.setConfigFile(file);
+  Port port = new Port();
+  port.load(configuration.readSnapshot());
+  assertEquals(42, port.getInt());
+ }
+
+ private File file;
+}
@@ -0,0 +1,145 @@
+/**
+ *    Copyright © 2014 Konstantin "Stan" Livitski
+ * 
+ *    This file is part of proper2. Proper2 is
+ *    licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package name.livitski.tools.proper2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the settings {@link PropertiesParser} reads from a file
+ * with those {@link Properties#load(java.io.Reader)} reads from the same
+ * text.
+ */
+public class PropertiesParserTest
+{
+ @Test
+ public void linesOfBackslashOnly() throws IOException, ConfigurationException
+ {
+  assertSameAsProperties("\\\n\nk=v\n");
+  assertSameAsProperties("\\\r\n\r\nk=v");
+  assertSameAsProperties("a=1\n\\\n\\\nb=2\n");
+  assertSameAsProperties("\\\n  \\\n\nk=1");
+  assertSameAsProperties("k\\\n\n=v\n");
+  assertSameAsProperties("\\\n");
+  assertSameAsProperties("\\");
+ }
+
+ @Test
+ public void continuationsBeforeSeparator() throws IOException, ConfigurationException
+ {
+  assertSameAsProperties("long.key \\\n   = value\n");
+  assertSameAsProperties("k \\\n \\\n : v\n");
+  assertSameAsProperties("k\\\n:v\n");
+  assertSameAsProperties("x\\\r\n = y\r\n");
+ }
+
+ @Test
+ public void commentsEndingInBackslash() throws IOException, ConfigurationException
+ {
+  assertSameAsProperties("# comment \\\nk=v\n");
+  assertSameAsProperties("! c\\\n  x=y\nz=w\n");
+  assertSameAsProperties("#c\\\\\nk=v\n");
+  assertSameAsProperties("k=v\\\n#c\n");
+  assertSameAsProperties("#c\\");
+  // Properties of Java 8 let the backslash that ends a comment escape
+  // the one that follows, which was fixed in Java 9
+  assertSameAsCurrentProperties("#c\\\n\\\nq=1\n", "q", "1");
+  assertSameAsCurrentProperties("#\\\n\\\n\n");
+  assertSameAsCurrentProperties("\\\n#c\nk=v\n", "k", "v");
+ }
+
+ @Before
+ public void createFile() throws IOException
+ {
+  file = File.createTempFile("parser", ".properties");
+ }
+
+ @After
+ public void deleteFile()
+ {
+  file.delete();
+ }
+
+ private void assertSameAsProperties(String text)
+   throws IOException, ConfigurationException
+ {
+  assertEquals(text, load(text), parse(text));
+ }
+
+ /**
+  * Checks the settings read from a text against those listed, and
+  * against {@link Properties} on versions of Java that read the
+  * text the same way.
+  * @param entries the keys and values of the expected settings
+  */
+ private void assertSameAsCurrentProperties(String text, String... entries)
+   throws IOException, ConfigurationException
+ {
+  Map<String, String> expected = new TreeMap<String, String>();
+  for (int i = 0; i < entries.length; i += 2)
+   expected.put(entries[i], entries[i + 1]);
+  Map<String, String> parsed = parse(text);
+  assertEquals(text, expected, parsed);
+  if (!System.getProperty("java.specification.version").startsWith("1."))
+   assertEquals(text, load(text), parsed);
+ }
+
+ private Map<String, String> parse(String text)
+   throws IOException, ConfigurationException
+ {
+  OutputStream out = new FileOutputStream(file);
+  try
+  {
+   out.write(text.getBytes("ISO-8859-1"));
+  }
+  finally
+  {
+   out.close();
+  }
+  ConfigurationSnapshot snapshot
+  	= PropertiesParser.parse(file, StandardCharsets.ISO_8859_1, new Properties());
+  Map<String, String> settings = new TreeMap<String, String>();
+  for (String key : snapshot.keys())
+   settings.put(key, snapshot.get(key));
+  return settings;
+ }
+
+ private static Map<String, String> load(String text) throws IOException
+ {
+  Properties properties = new Properties();
+  properties.load(new StringReader(text));
+  Map<String, String> settings = new TreeMap<String, String>();
+  for (String key : properties.stringPropertyNames())
+   settings.put(key, properties.getProperty(key));
+  return settings;
+ }
+
+ private File file;
+}